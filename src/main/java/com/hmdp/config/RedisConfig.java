@@ -0,0 +1,31 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_REBUILT_CHANNEL;
+
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 订阅缓存失效频道，清除本节点的一级缓存；订阅缓存重建完成频道，唤醒等待重建的线程；
+     * 订阅布隆过滤器新增频道，把其他节点新增的id加入本节点的布隆过滤器
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       CacheClient cacheClient) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_REBUILT_CHANNEL));
+        container.addMessageListener(cacheClient, new ChannelTopic(CACHE_BLOOM_ADD_CHANNEL));
+        return container;
+    }
+}
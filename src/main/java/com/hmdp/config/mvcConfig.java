@@ -26,8 +26,11 @@ public class mvcConfig implements WebMvcConfigurer {
                         "/shop/**",
                         "/voucher/**",
                         "/shop-type/**",
+                        // 只放开Prometheus抓取的指标接口，其余缓存管理接口需要登录
+                        "/cache/metrics",
                         "/upload/**",
                         "/blog/hot",
+                        "/blog/hot/scroll",
                         "/user/code",
                         "/user/login"
                 ).order(1);
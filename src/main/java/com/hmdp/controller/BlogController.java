@@ -1,19 +1,29 @@
 package com.hmdp.controller;
 
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ScrollCursor;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 
 /**
  * <p>
@@ -31,6 +41,8 @@ public class BlogController {
     private IBlogService blogService;
     @Resource
     private IUserService userService;
+    @Resource
+    private CacheClient cacheClient;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -71,13 +83,83 @@ public class BlogController {
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
+        fillUsers(records);
+        return Result.ok(records);
+    }
+
+    /**
+     * 滚动分页查询我的博文，按id倒序
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 博文列表和下一页游标
+     */
+    @GetMapping("/of/me/scroll")
+    public Result scrollMyBlog(@RequestParam(value = "cursor", required = false) String cursor) {
+        long[] after;
+        try {
+            after = ScrollCursor.decode(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(e.getMessage());
+        }
+        UserDTO user = UserHolder.getUser();
+        // 按(user_id, id)定位，不使用OFFSET，不查询总数
+        List<Blog> records = blogService.query()
+                .eq("user_id", user.getId())
+                .lt(after != null, "id", after == null ? null : after[0])
+                .orderByDesc("id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        ScrollResult result = new ScrollResult();
+        result.setList(records);
+        if (records.size() == SystemConstants.MAX_PAGE_SIZE) {
+            result.setCursor(ScrollCursor.encode(records.get(records.size() - 1).getId()));
+        }
+        return Result.ok(result);
+    }
+
+    /**
+     * 滚动分页查询热门博文，按点赞数、id倒序
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 博文列表和下一页游标
+     */
+    @GetMapping("/hot/scroll")
+    public Result scrollHotBlog(@RequestParam(value = "cursor", required = false) String cursor) {
+        long[] after;
+        try {
+            after = ScrollCursor.decode(cursor, 2);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(e.getMessage());
+        }
+        // 按(liked, id)定位：点赞数更少，或点赞数相同id更小
+        List<Blog> records = blogService.query()
+                .and(after != null, w -> w.lt("liked", after[0])
+                        .or(o -> o.eq("liked", after[0]).lt("id", after[1])))
+                .orderByDesc("liked", "id")
+                .last("limit " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        fillUsers(records);
+        ScrollResult result = new ScrollResult();
+        result.setList(records);
+        if (records.size() == SystemConstants.MAX_PAGE_SIZE) {
+            Blog last = records.get(records.size() - 1);
+            result.setCursor(ScrollCursor.encode(last.getLiked() == null ? 0 : last.getLiked(), last.getId()));
+        }
+        return Result.ok(result);
+    }
+
+    /**
+     * 批量查询博文作者（一次MGET，未命中的一次IN查询）
+     */
+    private void fillUsers(List<Blog> records) {
+        List<Long> userIds = records.stream().map(Blog::getUserId).collect(Collectors.toList());
+        Map<Long, UserDTO> users = cacheClient.queryBatchWitchPassThrough(CACHE_USER_KEY, userIds, UserDTO.class,
+                ids -> BeanUtil.copyToList(userService.listByIds(ids), UserDTO.class),
+                UserDTO::getId, CACHE_USER_TTL, TimeUnit.MINUTES);
         records.forEach(blog ->{
-            Long userId = blog.getUserId();
-            User user = userService.getById(userId);
-            blog.setName(user.getNickName());
-            blog.setIcon(user.getIcon());
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
         });
-        return Result.ok(records);
     }
 }
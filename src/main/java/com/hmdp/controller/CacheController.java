@@ -0,0 +1,127 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.task.ShopCacheWarmUpTask;
+import com.hmdp.task.ShopRankRebuildTask;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCompressor;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * <p>
+ * 缓存运行状态
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private ShopCacheWarmUpTask shopCacheWarmUpTask;
+
+    @Resource
+    private ShopRankRebuildTask shopRankRebuildTask;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private CacheCompressor cacheCompressor;
+
+    /**
+     * 查询布隆过滤器的拦截统计
+     * @param prefix key前缀
+     * @return 统计数据
+     */
+    @GetMapping("/bloom")
+    public Result queryBloomStats(@RequestParam(value = "prefix", defaultValue = CACHE_SHOP_KEY) String prefix) {
+        BloomFilter bloomFilter = cacheClient.getBloomFilter(prefix);
+        if (bloomFilter == null) {
+            return Result.fail("布隆过滤器未启用");
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("bitSize", bloomFilter.getBitSize());
+        stats.put("hashCount", bloomFilter.getHashCount());
+        stats.put("rejected", bloomFilter.getRejectedCount());
+        stats.put("passed", bloomFilter.getPassedCount());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 查询当前的热点key
+     * @param n 返回数量
+     * @return key -> 每秒访问量
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys(@RequestParam(value = "n", defaultValue = "10") Integer n) {
+        return Result.ok(hotKeyDetector.topKeys(n));
+    }
+
+    /**
+     * 查询店铺缓存预热进度
+     * @return 进度和吞吐量
+     */
+    @GetMapping("/warm-up")
+    public Result queryWarmUpStats() {
+        return Result.ok(shopCacheWarmUpTask.getStats());
+    }
+
+    /**
+     * 查询店铺排行最近一次重建的结果
+     * @return 店铺数量、耗时、完成时间
+     */
+    @GetMapping("/rank")
+    public Result queryRankStats() {
+        return Result.ok(shopRankRebuildTask.getStats());
+    }
+
+    /**
+     * 查询缓存重建线程池状态
+     * @return 队列长度、重建耗时、失败次数等
+     */
+    @GetMapping("/rebuild")
+    public Result queryRebuildStats() {
+        return Result.ok(cacheRebuildExecutor.getStats());
+    }
+
+    /**
+     * 缓存值压缩统计：压缩次数、压缩率、压缩和解压耗时
+     * @return 统计信息
+     */
+    @GetMapping("/compression")
+    public Result compressionStats() {
+        return Result.ok(cacheCompressor.getStats());
+    }
+
+    /**
+     * 缓存指标（Prometheus文本格式），按key前缀统计命中、未命中、空值、旧数据、重建、锁竞争次数和读写耗时
+     * @return 指标文本
+     */
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String scrapeMetrics() {
+        return cacheMetrics.scrape();
+    }
+}
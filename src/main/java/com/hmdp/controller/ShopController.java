@@ -2,14 +2,17 @@ package com.hmdp.controller;
 
 
 import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.ShopFacetIndex;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * <p>
@@ -27,13 +30,17 @@ public class ShopController {
     public IShopService shopService;
 
     /**
-     * 根据id查询商铺信息
+     * 根据id查询商铺信息，缓存新鲜时直接输出缓存中的响应体
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) throws InterruptedException {
-        return shopService.queryById(id);
+    public ResponseEntity<Object> queryShopById(@PathVariable("id") Long id) throws InterruptedException {
+        byte[] body = shopService.queryBodyById(id);
+        if (body != null) {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+        }
+        return ResponseEntity.ok(shopService.queryById(id));
     }
 
     /**
@@ -57,28 +64,46 @@ public class ShopController {
      */
     @PutMapping
     public Result updateShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.updateById(shop);
-        return Result.ok();
+        // 写入数据库并删除缓存
+        return shopService.updateShop(shop);
     }
 
     /**
-     * 根据商铺类型分页查询商铺信息
+     * 根据商铺类型分页查询商铺信息，传入坐标时按距离由近到远排序
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度
+     * @param y 纬度
+     * @param sortBy 排序方式（没有坐标时有效）：score 评分 / sold 人气 / comments 评论数 / price 人均价格
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "sortBy", required = false) String sortBy
+    ) {
+        return shopService.queryShopByType(typeId, current, x, y, sortBy);
+    }
+
+    /**
+     * 根据商铺类型滚动分页查询商铺信息，按id排序
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result scrollShopByType(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        try {
+            return shopService.scrollShopByType(typeId, cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(e.getMessage());
+        }
     }
 
     /**
@@ -92,11 +117,59 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 多条件筛选商铺，同时返回各筛选项取值的店铺数量
+     * @param typeId 商铺类型
+     * @param area 商圈
+     * @param price 人均价格区间：0-50 / 50-100 / 100-200 / 200-500 / 500-
+     * @param score 评分星级：0 ~ 5
+     * @param openNow 是否只看营业中
+     * @param current 页码
+     * @return 商铺列表、总数和各筛选项数量
+     */
+    @GetMapping("/filter")
+    public Result queryShopByFacet(
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "area", required = false) String area,
+            @RequestParam(value = "price", required = false) String price,
+            @RequestParam(value = "score", required = false) Integer score,
+            @RequestParam(value = "openNow", defaultValue = "false") Boolean openNow,
+            @RequestParam(value = "current", defaultValue = "1") Integer current
+    ) {
+        Map<String, String> filters = new HashMap<>();
+        if (typeId != null) {
+            filters.put(ShopFacetIndex.TYPE, typeId.toString());
+        }
+        if (StrUtil.isNotBlank(area)) {
+            filters.put(ShopFacetIndex.AREA, area.trim());
+        }
+        if (StrUtil.isNotBlank(price)) {
+            filters.put(ShopFacetIndex.PRICE, price.trim());
+        }
+        if (score != null) {
+            filters.put(ShopFacetIndex.SCORE, score.toString());
+        }
+        return shopService.queryShopByFacet(filters, openNow, current);
+    }
+
+    /**
+     * 根据商铺名称关键字滚动分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页游标
+     */
+    @GetMapping("/of/name/scroll")
+    public Result scrollShopByName(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        try {
+            return shopService.scrollShopByName(name, cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(e.getMessage());
+        }
     }
 }
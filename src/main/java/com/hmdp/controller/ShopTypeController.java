@@ -1,15 +1,19 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 /**
  * <p>
@@ -25,11 +29,46 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
+    /**
+     * 查询店铺类型列表，直接输出快照中序列化好的响应体
+     * @param ifNoneMatch 客户端缓存的ETag，与当前快照相同时返回304
+     * @return 类型列表
+     */
     @GetMapping("list")
-    public Result queryTypeList() {
+    public ResponseEntity<byte[]> queryTypeList(
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch
+    ) {
 //        List<ShopType> typeList = typeService
 //                .query().orderByAsc("sort").list();
 //        return Result.ok(typeList);
-        return typeService.queryTypeList();
+        ShopTypeSnapshot snapshot = typeService.getTypeListSnapshot();
+        // 客户端每次都带上ETag来校验
+        CacheControl cacheControl = CacheControl.noCache();
+        if (matches(ifNoneMatch, snapshot.getEtag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(snapshot.getEtag())
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(snapshot.getEtag())
+                .cacheControl(cacheControl)
+                .body(snapshot.getBody());
+    }
+
+    /**
+     * If-None-Match可能带多个ETag（逗号分隔）或弱校验前缀W/
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (StrUtil.isBlank(ifNoneMatch)) {
+            return false;
+        }
+        for (String tag : StrUtil.split(ifNoneMatch, ',', true, true)) {
+            if ("*".equals(tag) || etag.equals(StrUtil.removePrefix(tag, "W/"))) {
+                return true;
+            }
+        }
+        return false;
     }
 }
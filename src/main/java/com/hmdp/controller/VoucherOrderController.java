@@ -3,6 +3,8 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import com.hmdp.task.SeckillOrderConsumer;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -25,8 +27,20 @@ public class VoucherOrderController {
     @Resource
     private VoucherOrderServiceImpl voucherOrderService;
 
+    @Resource
+    private SeckillOrderConsumer seckillOrderConsumer;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 秒杀订单入库的统计
+     * @return 入库数、吞吐量、积压、pending、死信数量等
+     */
+    @GetMapping("stream")
+    public Result queryStreamStats() {
+        return Result.ok(seckillOrderConsumer.getStats());
+    }
 }
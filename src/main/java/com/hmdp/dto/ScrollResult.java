@@ -9,4 +9,8 @@ public class ScrollResult {
     private List<?> list;
     private Long minTime;
     private Integer offset;
+    /**
+     * 下一页游标，为null表示没有下一页
+     */
+    private String cursor;
 }
@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class ShopFacetResult {
+    private List<?> list;
+    /**
+     * 符合条件的店铺总数
+     */
+    private Integer total;
+    /**
+     * 筛选项 -> 取值 -> 店铺数量
+     */
+    private Map<String, Map<String, Integer>> facets;
+}
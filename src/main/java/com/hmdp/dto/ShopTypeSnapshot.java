@@ -0,0 +1,50 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照，创建后不再修改，刷新时整体替换
+ */
+public final class ShopTypeSnapshot {
+    /**
+     * 本节点的快照版本，每次刷新加一
+     */
+    private final long version;
+    private final List<ShopType> types;
+    /**
+     * 序列化好的响应体（Result的JSON）
+     */
+    private final byte[] body;
+    /**
+     * 由响应体内容计算，各节点相同
+     */
+    private final String etag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body, String etag) {
+        this.version = version;
+        this.types = types;
+        this.body = body;
+        this.etag = etag;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<ShopType> getTypes() {
+        return types;
+    }
+
+    /**
+     * 直接写给客户端，调用方不能修改
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+}
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,22 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id) throws InterruptedException;
 
+    /**
+     * 缓存中序列化好的店铺详情响应体，逻辑过期、不存在或未开启时返回null，需要调用queryById
+     */
+    byte[] queryBodyById(Long id);
+
     Result saveShop(Shop shop);
+
+    Result updateShop(Shop shop);
+
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String sortBy);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result queryShopByFacet(Map<String, String> filters, Boolean openNow, Integer current);
+
+    Result scrollShopByType(Integer typeId, String cursor);
+
+    Result scrollShopByName(String name, String cursor);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -15,5 +17,24 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
-    Result createVoucherOrder(Long voucherId);
+    /**
+     * 在一个事务中批量保存订单：每个优惠券锁住库存行后一条UPDATE扣库存，订单一条多行INSERT，已存在的订单跳过。
+     * 数据库库存不够时只写入能扣到库存的订单（按传入顺序，先下单的优先），其余不写入
+     *
+     * @return 因数据库库存不足没有写入的订单，需要调用方补偿
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 释放没有写入数据库的订单占用的下单资格（一人一单），并把对应优惠券在redis中的库存清零（数据库已经没有库存），
+     * 不再放入新的订单
+     */
+    void releaseSeckill(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 把秒杀券的库存、时间和已下单用户写入redis，已存在时不覆盖
+     *
+     * @return 秒杀券不存在时返回false
+     */
+    boolean loadSeckillStock(Long voucherId);
 }
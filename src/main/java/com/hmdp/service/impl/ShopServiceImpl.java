@@ -7,24 +7,62 @@ import cn.hutool.json.JSON;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.core.injector.methods.SelectById;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.ShopFacetResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilter;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.GeoGridIndex;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.NgramIndex;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ResponseBodyCodec;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.ShopBinaryCodec;
+import com.hmdp.utils.ShopFacetIndex;
+import com.hmdp.utils.ShopSortKey;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -36,15 +74,543 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
+    /**
+     * 增量更新店铺排行，排行正在全量重建时把店铺id记下来，重建完成后按数据库重放，避免被RENAME覆盖
+     * <p>
+     * KEYS[1] 重建标记，KEYS[2] 重建期间变更的店铺id集合，KEYS[3..] 排行zset；
+     * ARGV[1] 店铺id，ARGV[i] KEYS[i+1]中的分数，"-"表示从该排行中移除
+     */
+    private static final DefaultRedisScript<Long> RANK_UPDATE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 3, #KEYS do "
+                    + "if ARGV[i - 1] == '-' then redis.call('zrem', KEYS[i], ARGV[1]) "
+                    + "else redis.call('zadd', KEYS[i], ARGV[i - 1], ARGV[1]) end "
+                    + "end "
+                    + "if redis.call('exists', KEYS[1]) == 1 then redis.call('sadd', KEYS[2], ARGV[1]) end "
+                    + "return 1", Long.class);
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private CacheClient cacheClient;
 
+    @Value("${hmdp.cache.codec.shop:json}")
+    private String shopCodec;
+
+    @Value("${hmdp.cache.strategy.shop:logical_expire}")
+    private String shopStrategy;
+
+    @Value("${hmdp.cache.bucket.shop:0}")
+    private int shopBucketSize;
+
+    /**
+     * 店铺详情缓存直接存放序列化好的响应体，新鲜命中时原样返回
+     */
+    @Value("${hmdp.cache.response.shop:false}")
+    private boolean shopResponseBody;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Value("${hmdp.shop.geo.load-on-startup:false}")
+    private boolean geoLoadOnStartup;
+
+    @Value("${hmdp.shop.geo.radius-meters:5000}")
+    private double geoRadiusMeters;
+
+    /**
+     * 附近店铺查询方式：redis（GEO）/ local（进程内网格索引）
+     */
+    @Value("${hmdp.shop.geo.mode:redis}")
+    private String geoMode;
+
+    @Value("${hmdp.shop.geo.cell-degrees:0.01}")
+    private double geoCellDegrees;
+
+    /**
+     * 类型id -> 进程内网格索引（local模式）
+     */
+    private final Map<Long, GeoGridIndex> shopGeoIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * 店铺名称、地址的进程内倒排索引
+     */
+    @Value("${hmdp.shop.search.enabled:false}")
+    private boolean searchEnabled;
+
+    private final NgramIndex shopNameIndex = new NgramIndex();
+
+    /**
+     * 店铺多条件筛选的进程内位图索引
+     */
+    @Value("${hmdp.shop.facet.enabled:false}")
+    private boolean facetEnabled;
+
+    private final ShopFacetIndex shopFacetIndex = new ShopFacetIndex();
+
+    /**
+     * 按类型浏览店铺时从redis的排行（zset）和店铺缓存读取
+     */
+    @Value("${hmdp.shop.listing.enabled:false}")
+    private boolean listingEnabled;
+
+    /**
+     * 不指定排序时的默认排行：score / sold / comments / price
+     */
+    @Value("${hmdp.shop.listing.rank:score}")
+    private String listingRank;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.cache.bloom.enabled:false}")
+    private boolean bloomEnabled;
+
+    @Value("${hmdp.cache.bloom.expected-insertions:100000}")
+    private long bloomExpectedInsertions;
+
+    @Value("${hmdp.cache.bloom.fpp:0.01}")
+    private double bloomFpp;
+
+    @Value("${hmdp.cache.bloom.max-bytes:1048576}")
+    private long bloomMaxBytes;
+
+    /**
+     * 店铺缓存可选使用二进制编码，按配置选择查询策略，可选按桶存储
+     */
+    @PostConstruct
+    public void initCodec() {
+        CacheCodec codec = JsonCacheCodec.INSTANCE;
+        if ("binary".equalsIgnoreCase(shopCodec)) {
+            codec = ShopBinaryCodec.INSTANCE;
+            cacheClient.registerCodec(CACHE_SHOP_KEY, codec);
+            cacheClient.registerCodec(CACHE_SHOP_LIST_KEY, codec);
+        }
+        if (shopResponseBody) {
+            // 原编解码器写入的旧值仍能读取
+            cacheClient.registerCodec(CACHE_SHOP_KEY, new ResponseBodyCodec(objectMapper, codec));
+        }
+        cacheClient.registerStrategy(CACHE_SHOP_KEY, CacheStrategy.valueOf(shopStrategy.toUpperCase()));
+        if (shopBucketSize > 0) {
+            cacheClient.registerBucket(CACHE_SHOP_KEY, shopBucketSize);
+        }
+    }
+
+    /**
+     * 启动时把tb_shop的全部id装入布隆过滤器，拦截不存在的店铺id
+     */
+    @PostConstruct
+    public void initBloomFilter() {
+        if (!bloomEnabled) {
+            return;
+        }
+        try {
+            long count = count();
+            BloomFilter bloomFilter = new BloomFilter(Math.max(count, bloomExpectedInsertions), bloomFpp, bloomMaxBytes);
+            // 按id分批读取，避免一次把整张表加载到内存
+            long lastId = 0;
+            while (true) {
+                List<Object> ids = listObjs(query().select("id").gt("id", lastId)
+                        .orderByAsc("id").last("limit 1000").getWrapper());
+                if (ids.isEmpty()) {
+                    break;
+                }
+                ids.forEach(bloomFilter::put);
+                lastId = ((Number) ids.get(ids.size() - 1)).longValue();
+            }
+            cacheClient.registerBloomFilter(CACHE_SHOP_KEY, bloomFilter);
+            log.info("店铺布隆过滤器加载完成，数量：{}，位数：{}，哈希次数：{}",
+                    count, bloomFilter.getBitSize(), bloomFilter.getHashCount());
+        } catch (Exception e) {
+            // 加载失败不拦截任何请求
+            log.warn("店铺布隆过滤器加载失败", e);
+        }
+    }
+
+    /**
+     * 使用进程内索引时订阅店铺变更，收到后刷新本节点的索引
+     */
+    @PostConstruct
+    public void initShopChangeListener() {
+        if (!hasLocalIndex()) {
+            return;
+        }
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                refreshShopIndexes(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(SHOP_CHANGED_CHANNEL));
+    }
+
+    /**
+     * 启动时按类型把tb_shop的坐标批量写入GEO；local模式构建进程内索引
+     */
+    @PostConstruct
+    public void initShopGeo() {
+        boolean local = isLocalGeo();
+        if (!geoLoadOnStartup && !local) {
+            return;
+        }
+        try {
+            long total = 0;
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = query().select("id", "type_id", "x", "y").gt("id", lastId)
+                        .orderByAsc("id").last("limit 1000").list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                // 按类型分组，每个类型一次GEOADD
+                Map<Long, List<RedisGeoCommands.GeoLocation<String>>> locations = new HashMap<>();
+                for (Shop shop : shops) {
+                    if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                        continue;
+                    }
+                    if (local) {
+                        geoIndexOf(shop.getTypeId()).put(shop.getId(), shop.getX(), shop.getY());
+                    }
+                    locations.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>())
+                            .add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+                }
+                if (geoLoadOnStartup) {
+                    locations.forEach((typeId, list) -> stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, list));
+                }
+                total += shops.size();
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            log.info("店铺GEO加载完成，数量：{}", total);
+        } catch (Exception e) {
+            log.warn("店铺GEO加载失败", e);
+        }
+    }
+
+    /**
+     * 启动时构建店铺多条件筛选索引
+     */
+    @PostConstruct
+    public void initShopFacetIndex() {
+        if (!facetEnabled) {
+            return;
+        }
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = query().select("id", "type_id", "area", "avg_price", "score", "open_hours")
+                        .gt("id", lastId).orderByAsc("id").last("limit 1000").list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                shops.forEach(shopFacetIndex::put);
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            log.info("店铺筛选索引加载完成，数量：{}，位图内存：{}字节", shopFacetIndex.size(), shopFacetIndex.sizeInBytes());
+        } catch (Exception e) {
+            facetEnabled = false;
+            log.warn("店铺筛选索引加载失败", e);
+        }
+    }
+
+    /**
+     * 启动时构建店铺名称、地址的倒排索引
+     */
+    @PostConstruct
+    public void initShopSearchIndex() {
+        if (!searchEnabled) {
+            return;
+        }
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = query().select("id", "name", "address").gt("id", lastId)
+                        .orderByAsc("id").last("limit 1000").list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                shops.forEach(shop -> shopNameIndex.put(shop.getId(), shop.getName(), shop.getAddress()));
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            log.info("店铺搜索索引加载完成，数量：{}", shopNameIndex.size());
+        } catch (Exception e) {
+            // 加载失败时按数据库查询
+            searchEnabled = false;
+            log.warn("店铺搜索索引加载失败", e);
+        }
+    }
+
+    /**
+     * 从排行zset取一页店铺id，再批量读取店铺缓存（一次MGET，未命中的一次IN查询）
+     *
+     * @return 排行不存在时返回null，由调用方查询数据库
+     */
+    private List<Shop> queryShopListing(Integer typeId, ShopSortKey sortKey, Integer current) {
+        // 页码由用户传入，小于1时按第一页处理，避免负数下标被redis当作从末尾倒数
+        int page = current == null ? 1 : Math.max(1, current);
+        int from = (page - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = page * SystemConstants.DEFAULT_PAGE_SIZE - 1;
+        String key = sortKey.keyOf(typeId.longValue());
+        Set<String> members = sortKey.isAscending()
+                ? stringRedisTemplate.opsForZSet().range(key, from, end)
+                : stringRedisTemplate.opsForZSet().reverseRange(key, from, end);
+        if (members == null || members.isEmpty()) {
+            // 第一页为空可能是排行丢失，交给数据库
+            return page == 1 ? null : Collections.emptyList();
+        }
+        List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, Shop> shops = cacheClient.queryBatchWitchPassThrough(CACHE_SHOP_LIST_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        return new ArrayList<>(shops.values());
+    }
+
+    private ShopSortKey defaultSortKey() {
+        ShopSortKey sortKey = ShopSortKey.of(listingRank);
+        return sortKey == null ? ShopSortKey.SCORE : sortKey;
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        // 页码由用户传入，小于1时按第一页处理
+        int page = current == null ? 1 : Math.max(1, current);
+        // 没有关键字或索引不可用，按数据库分页查询
+        if (StrUtil.isBlank(name) || !searchEnabled) {
+            Page<Shop> result = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(page, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(result.getRecords());
+        }
+        // 按相关度排序后分页
+        List<Long> ids = shopNameIndex.search(name, (page - 1) * SystemConstants.MAX_PAGE_SIZE, SystemConstants.MAX_PAGE_SIZE);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        String idStr = StrUtil.join(",", ids);
+        return Result.ok(query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list());
+    }
+
+    @Override
+    public Result queryShopByFacet(Map<String, String> filters, Boolean openNow, Integer current) {
+        if (!facetEnabled) {
+            return Result.fail("店铺筛选未开启！");
+        }
+        // 页码由用户传入，小于1时按第一页处理
+        int page = current == null ? 1 : Math.max(1, current);
+        ShopFacetIndex.FacetResult facets = shopFacetIndex.search(filters, Boolean.TRUE.equals(openNow), LocalTime.now(),
+                (page - 1) * SystemConstants.DEFAULT_PAGE_SIZE, SystemConstants.DEFAULT_PAGE_SIZE);
+        ShopFacetResult result = new ShopFacetResult();
+        result.setTotal(facets.getTotal());
+        result.setFacets(facets.getCounts());
+        if (facets.getIds().isEmpty()) {
+            result.setList(Collections.emptyList());
+            return Result.ok(result);
+        }
+        String idStr = StrUtil.join(",", facets.getIds());
+        result.setList(query().in("id", facets.getIds()).last("ORDER BY FIELD(id," + idStr + ")").list());
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result scrollShopByType(Integer typeId, String cursor) {
+        long[] after = ScrollCursor.decode(cursor, 1);
+        // 按(type_id, id)定位，不使用OFFSET，不查询总数
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt(after != null, "id", after == null ? null : after[0])
+                .orderByAsc("id")
+                .last("limit " + SystemConstants.DEFAULT_PAGE_SIZE)
+                .list();
+        ScrollResult result = new ScrollResult();
+        result.setList(shops);
+        if (shops.size() == SystemConstants.DEFAULT_PAGE_SIZE) {
+            result.setCursor(ScrollCursor.encode(shops.get(shops.size() - 1).getId()));
+        }
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result scrollShopByName(String name, String cursor) {
+        ScrollResult result = new ScrollResult();
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        if (StrUtil.isBlank(name) || !searchEnabled) {
+            // 按id定位
+            long[] after = ScrollCursor.decode(cursor, 1);
+            List<Shop> shops = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .gt(after != null, "id", after == null ? null : after[0])
+                    .orderByAsc("id")
+                    .last("limit " + size)
+                    .list();
+            result.setList(shops);
+            if (shops.size() == size) {
+                result.setCursor(ScrollCursor.encode(shops.get(shops.size() - 1).getId()));
+            }
+            return Result.ok(result);
+        }
+        // 按相关度排序，游标为上一页最后一条的(分数, 名称长度, id)
+        long[] after = ScrollCursor.decode(cursor, 3);
+        List<NgramIndex.Hit> hits = shopNameIndex.searchAfter(name,
+                after == null ? null : new NgramIndex.Hit(after[2], (int) after[0], (int) after[1]), size);
+        if (hits.isEmpty()) {
+            result.setList(Collections.emptyList());
+            return Result.ok(result);
+        }
+        List<Long> ids = new ArrayList<>(hits.size());
+        hits.forEach(hit -> ids.add(hit.getId()));
+        String idStr = StrUtil.join(",", ids);
+        result.setList(query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list());
+        if (hits.size() == size) {
+            NgramIndex.Hit last = hits.get(hits.size() - 1);
+            result.setCursor(ScrollCursor.encode(last.getScore(), last.getNameLength(), last.getId()));
+        }
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, String sortBy) {
+        // 没有坐标，按排行分页查询
+        if (x == null || y == null) {
+            ShopSortKey sortKey = StrUtil.isBlank(sortBy) ? defaultSortKey() : ShopSortKey.of(sortBy);
+            if (sortKey == null) {
+                return Result.fail("排序方式不正确！");
+            }
+            if (listingEnabled) {
+                List<Shop> shops = queryShopListing(typeId, sortKey, current);
+                if (shops != null) {
+                    return Result.ok(shops);
+                }
+            }
+            // 排行不可用时查询数据库，指定了排序才排序；排序列与id同方向，走(type_id, 排序列, id)索引，不做filesort
+            boolean sorted = StrUtil.isNotBlank(sortBy);
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .orderBy(sorted, sortKey.isAscending(), sortKey.getColumn())
+                    .orderBy(sorted, sortKey.isAscending(), "id")
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        // 计算分页参数，页码由用户传入，小于1时按第一页处理
+        int page = current == null ? 1 : Math.max(1, current);
+        int from = (page - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = page * SystemConstants.DEFAULT_PAGE_SIZE;
+        // 按距离由近到远取[0, end)，再截取[from, end)
+        List<Long> ids = new ArrayList<>();
+        Map<Long, Double> distances = new HashMap<>();
+        if (isLocalGeo()) {
+            GeoGridIndex index = shopGeoIndexes.get(typeId.longValue());
+            List<GeoGridIndex.Neighbor> list = index == null ? Collections.emptyList()
+                    : index.nearest(x, y, end, geoRadiusMeters);
+            for (int i = from; i < list.size(); i++) {
+                ids.add(list.get(i).getId());
+                distances.put(list.get(i).getId(), list.get(i).getDistance());
+            }
+        } else {
+            GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                    SHOP_GEO_KEY + typeId,
+                    new Circle(new Point(x, y), new Distance(geoRadiusMeters)),
+                    RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(end));
+            List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results == null ? Collections.emptyList() : results.getContent();
+            for (int i = from; i < list.size(); i++) {
+                Long shopId = Long.valueOf(list.get(i).getContent().getName());
+                ids.add(shopId);
+                distances.put(shopId, list.get(i).getDistance().getValue());
+            }
+        }
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 根据id查询店铺，保持距离顺序
+        String idStr = StrUtil.join(",", ids);
+        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        for (Shop shop : shops) {
+            shop.setDistance(distances.get(shop.getId()));
+        }
+        return Result.ok(shops);
+    }
+
+    /**
+     * 同步店铺坐标到GEO、排行到zset（类型变化时从原类型中移除），并通知所有节点刷新进程内索引
+     *
+     * @param shop      更新后的店铺
+     * @param oldTypeId 更新前的类型，新增时为null
+     */
+    private void syncShopIndexes(Shop shop, Long oldTypeId) {
+        String member = shop.getId().toString();
+        List<String> rankKeys = new ArrayList<>();
+        List<String> rankArgs = new ArrayList<>();
+        rankKeys.add(SHOP_RANK_REBUILDING_KEY);
+        rankKeys.add(SHOP_RANK_CHANGED_KEY);
+        rankArgs.add(member);
+        if (oldTypeId != null && !oldTypeId.equals(shop.getTypeId())) {
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + oldTypeId, member);
+            for (ShopSortKey sortKey : ShopSortKey.values()) {
+                rankKeys.add(sortKey.keyOf(oldTypeId));
+                rankArgs.add("-");
+            }
+        }
+        if (listingEnabled && shop.getTypeId() != null) {
+            for (ShopSortKey sortKey : ShopSortKey.values()) {
+                rankKeys.add(sortKey.keyOf(shop.getTypeId()));
+                rankArgs.add(String.valueOf(sortKey.scoreOf(shop)));
+            }
+        }
+        if (rankKeys.size() > 2) {
+            stringRedisTemplate.execute(RANK_UPDATE_SCRIPT, rankKeys, rankArgs.toArray());
+        }
+        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), member);
+        }
+        // 通知所有节点（包括自己）刷新进程内索引
+        if (hasLocalIndex()) {
+            stringRedisTemplate.convertAndSend(SHOP_CHANGED_CHANNEL, member);
+        }
+    }
+
+    /**
+     * 从数据库重新读取店铺，刷新进程内索引
+     */
+    private void refreshShopIndexes(Long id) {
+        Shop shop = query().select("id", "type_id", "x", "y", "name", "address", "area", "avg_price", "score", "open_hours")
+                .eq("id", id).one();
+        if (isLocalGeo()) {
+            // 类型可能变化，先从所有类型中移除
+            shopGeoIndexes.values().forEach(index -> index.remove(id));
+            if (shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                geoIndexOf(shop.getTypeId()).put(id, shop.getX(), shop.getY());
+            }
+        }
+        if (searchEnabled) {
+            if (shop == null) {
+                shopNameIndex.remove(id);
+            } else {
+                shopNameIndex.put(id, shop.getName(), shop.getAddress());
+            }
+        }
+        if (facetEnabled) {
+            if (shop == null) {
+                shopFacetIndex.remove(id);
+            } else {
+                shopFacetIndex.put(shop);
+            }
+        }
+    }
+
+    private GeoGridIndex geoIndexOf(Long typeId) {
+        return shopGeoIndexes.computeIfAbsent(typeId, k -> new GeoGridIndex(geoCellDegrees));
+    }
+
+    private boolean isLocalGeo() {
+        return "local".equalsIgnoreCase(geoMode);
+    }
+
+    private boolean hasLocalIndex() {
+        return isLocalGeo() || searchEnabled || facetEnabled;
+    }
+
+    @Override
+    public byte[] queryBodyById(Long id) {
+        return cacheClient.queryResponseBody(CACHE_SHOP_KEY, id, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
     @Override
     public Result queryById(Long id) throws InterruptedException {
         // 缓存穿透
@@ -55,7 +621,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 通过缓存空值解决缓存穿透 需要提前加载
 //        Shop shop = cacheClient.queryWitchPassThrough(CACHE_SHOP_KEY,id,Shop.class,this::getById, CACHE_SHOP_TTL,TimeUnit.MINUTES);
         // 通过互斥锁解决缓存击穿 需要提前加载
-        Shop shop = cacheClient.queryWitchLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+//        Shop shop = cacheClient.queryWitchLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 按配置的策略查询（hmdp.cache.strategy.shop）
+        Shop shop = cacheClient.query(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("店铺不存在");
         }
@@ -71,50 +639,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @return
      */
     public Shop queryWitchMutex(Long id) {
-        // 在redis中查询
-        String shopJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        //判断是否存在
-        if (StrUtil.isBlank(shopJson)) {
-            // 不存在
-            // 实现缓存重建
-            //获取互斥锁
-            try {
-                boolean isLock = tryLock(LOCK_SHOP_KEY + id);
-                //判断是否获得锁
-                if (!isLock) {
-                    //否休眠一段时间在从redis中查找缓存
-                    Thread.sleep(50);
-                    return queryWitchMutex(id);    //递归
-                }
-                //是查询数据库
-                Shop shop = getById(id);
-                //判断是否存在数据库
-                if (shop == null) {
-                    //不存在返回404
-                    Result.fail("404");
-                    // 缓存穿透在redis中写入空值
-                    stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                }
-                //存在 将店铺信息写回redis返回信息
-                //obj -> json
-                String shopToJson = JSONUtil.toJsonStr(shop);
-                //防止所有key在同一时间失效所以给TTL添加随机值
-                long randomTTL = RandomUtil.randomLong(1L, 30L);
-                stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, shopToJson, CACHE_SHOP_TTL + randomTTL, TimeUnit.MINUTES);
-                // 释放互斥锁
-                unLock(LOCK_SHOP_KEY + id);
-                return shop;
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        //redis中存在直接返回
-        // json -> obj
-        Shop shop = JSONUtil.toBean(shopJson, Shop.class);
-        return shop;
+        // 本节点内并发未命中合并为一次加载，只有一个线程竞争redis锁
+        return cacheClient.queryWitchMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    @Resource
+    private CacheRebuildExecutor rebuildExecutor;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
 
     /**
      * 逻辑过期
@@ -144,18 +677,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         boolean isLock = tryLock(LOCK_SHOP_KEY + id);
         //判断锁是否过期
         if (isLock) {
-            //锁未过期，创建一个新线程，进行缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            //锁未过期，提交到重建线程池
+            boolean submitted = rebuildExecutor.submit(CACHE_SHOP_KEY + id, () -> {
                 try {
                     //重建缓存
                     this.saveShopToRedis(id, 20L);
-                } catch (Exception e) {
+                } catch (InterruptedException e) {
                     throw new RuntimeException(e);
                 } finally {
                     // 释放锁
                     unLock(LOCK_SHOP_KEY + id);
                 }
             });
+            if (!submitted) {
+                // 已在重建或队列已满，返回旧数据
+                unLock(LOCK_SHOP_KEY + id);
+            }
         }
         JSONObject data = (JSONObject) redisData.getData();
         Shop shop = JSONUtil.toBean(data, Shop.class);
@@ -206,12 +743,38 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //更新数据库
         save(shop);
-        //删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        //事务提交后删除缓存（同时清除各节点的一级缓存）
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + shop.getId());
+        //事务提交后加入布隆过滤器，写入GEO、排行和搜索索引
+        cacheInvalidator.afterCommit(() -> {
+            cacheClient.addToBloomFilter(CACHE_SHOP_KEY, shop.getId());
+            syncShopIndexes(shop, null);
+        });
         //返回ok
         return Result.ok("添加成功");
     }
 
+    @Override
+    @Transactional
+    public Result updateShop(Shop shop) {
+        Long id = shop.getId();
+        if (id == null) {
+            return Result.fail("店铺id不能为空");
+        }
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在");
+        }
+        //更新数据库
+        updateById(shop);
+        //事务提交后删除缓存（同时清除各节点的一级缓存）
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + id, CACHE_SHOP_LIST_KEY + id);
+        //事务提交后同步GEO、排行和搜索索引（只传了部分字段时以数据库中的最新值为准）
+        Shop updated = getById(id);
+        cacheInvalidator.afterCommit(() -> syncShopIndexes(updated, old.getTypeId()));
+        return Result.ok();
+    }
+
     /**
      * 获取锁
      *
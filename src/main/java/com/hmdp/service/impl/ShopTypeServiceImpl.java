@@ -1,20 +1,33 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.digest.DigestUtil;
 import cn.hutool.json.JSONArray;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheInvalidator;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.hmdp.utils.RedisConstants.SHOP_TYPE;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANGED_CHANNEL;
 
 /**
  * <p>
@@ -24,34 +37,120 @@ import static com.hmdp.utils.RedisConstants.SHOP_TYPE;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate  stringRedisTemplate;
 
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    /**
+     * 类型列表的进程内快照，第一次查询时加载，收到变更通知后整体替换
+     */
+    private volatile ShopTypeSnapshot snapshot;
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * 订阅类型变更，收到后重新加载本节点的快照
+     */
+    @PostConstruct
+    public void initTypeChangeListener() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            try {
+                snapshot = loadSnapshot();
+            } catch (Exception e) {
+                // 下次查询时再加载
+                snapshot = null;
+                log.warn("店铺类型快照刷新失败", e);
+            }
+        }, new ChannelTopic(SHOP_TYPE_CHANGED_CHANNEL));
+    }
+
     @Override
     public Result queryTypeList() {
+        return Result.ok(getTypeListSnapshot().getTypes());
+    }
+
+    @Override
+    public ShopTypeSnapshot getTypeListSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = loadSnapshot();
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 从redis（不存在时从数据库）读取类型列表，生成新的快照
+     */
+    private ShopTypeSnapshot loadSnapshot() {
         //在redis中查询(String)
         String shopTypeJson = stringRedisTemplate.opsForValue().get(SHOP_TYPE);
-        //判断是否存在
-        if(StrUtil.isBlank(shopTypeJson)) {
-            //不存在在数据库中查询返回list
-            List<ShopType> sort = query().orderByAsc("sort").list();
-            if (sort == null) {
-                //数据库中不存在返回404
-                return Result.fail("404");
-            }
-            //list -> json
-            String sortToJson = JSONUtil.toJsonStr(sort);
+        List<ShopType> types;
+        if (StrUtil.isBlank(shopTypeJson)) {
+            //不存在在数据库中查询
+            types = query().orderByAsc("sort").list();
             //存入redis(String)
-            stringRedisTemplate.opsForValue().set(SHOP_TYPE,sortToJson);
-            //返回list
-            return Result.ok(sort);
+            stringRedisTemplate.opsForValue().set(SHOP_TYPE, JSONUtil.toJsonStr(types));
+        } else {
+            types = JSONUtil.toList(new JSONArray(shopTypeJson), ShopType.class);
         }
-        //redis中存在返回list
-        //json -> list
-        List<ShopType> shop = JSONUtil.toList(new JSONArray(shopTypeJson), ShopType.class);
-        return Result.ok(shop);
+        // 按接口返回的格式序列化一次，之后直接输出这份字节
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("店铺类型序列化失败", e);
+        }
+        String etag = "\"" + DigestUtil.md5Hex(body) + "\"";
+        ShopTypeSnapshot loaded = new ShopTypeSnapshot(version.incrementAndGet(), Collections.unmodifiableList(types), body, etag);
+        log.debug("店铺类型快照加载完成，版本：{}，数量：{}", loaded.getVersion(), types.size());
+        return loaded;
+    }
+
+    @Override
+    public boolean save(ShopType entity) {
+        boolean saved = super.save(entity);
+        publishChange();
+        return saved;
+    }
+
+    @Override
+    public boolean updateById(ShopType entity) {
+        boolean updated = super.updateById(entity);
+        publishChange();
+        return updated;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        publishChange();
+        return removed;
+    }
+
+    /**
+     * 类型变更后（有事务时在提交后）删除redis中的列表，通知所有节点重新加载快照
+     */
+    private void publishChange() {
+        cacheInvalidator.afterCommit(() -> {
+            stringRedisTemplate.delete(SHOP_TYPE);
+            stringRedisTemplate.convertAndSend(SHOP_TYPE_CHANGED_CHANNEL, "1");
+        });
     }
 }
@@ -1,9 +1,7 @@
 package com.hmdp.service.impl;
 
-import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
-import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
@@ -11,14 +9,26 @@ import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.UserHolder;
-import org.springframework.aop.framework.AopContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import static com.hmdp.utils.RedisConstants.ORDER;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
@@ -29,68 +39,193 @@ import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    /**
+     * 秒杀资格判断，在redis中原子执行，成功时同时把订单写入订单stream
+     * <p>
+     * KEYS[1] 秒杀信息hash（stock 库存、begin 开始时间、end 结束时间，epoch毫秒），KEYS[2] 已下单用户set，KEYS[3] 订单stream；
+     * ARGV[1] 用户id，ARGV[2] 当前时间（epoch毫秒），ARGV[3] 优惠券id，ARGV[4] 订单id。用户set与秒杀信息同时过期。
+     * 返回 0 成功（已扣库存、记录用户、写入stream），1 未开始，2 已结束，3 库存不足，4 重复下单，5 秒杀信息未加载
+     */
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then return 5 end "
+                    + "local info = redis.call('hmget', KEYS[1], 'stock', 'begin', 'end') "
+                    + "local now = tonumber(ARGV[2]) "
+                    + "if now < tonumber(info[2]) then return 1 end "
+                    + "if now > tonumber(info[3]) then return 2 end "
+                    + "if tonumber(info[1]) <= 0 then return 3 end "
+                    + "if redis.call('sismember', KEYS[2], ARGV[1]) == 1 then return 4 end "
+                    + "redis.call('hincrby', KEYS[1], 'stock', -1) "
+                    + "redis.call('sadd', KEYS[2], ARGV[1]) "
+                    + "redis.call('xadd', KEYS[3], '*', 'id', ARGV[4], 'userId', ARGV[1], 'voucherId', ARGV[3]) "
+                    + "local ttl = redis.call('pttl', KEYS[1]) "
+                    + "if ttl > 0 then redis.call('pexpire', KEYS[2], ttl) end "
+                    + "return 0", Long.class);
+
+    /**
+     * 把秒杀信息和已下单用户写入redis，已存在时不覆盖
+     * <p>
+     * ARGV[1] 库存，ARGV[2] 开始时间，ARGV[3] 结束时间，ARGV[4] 两个key的过期时间点（epoch毫秒），ARGV[5..] 已下单用户id
+     */
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 1 then return 0 end "
+                    + "redis.call('hmset', KEYS[1], 'stock', ARGV[1], 'begin', ARGV[2], 'end', ARGV[3]) "
+                    + "for i = 5, #ARGV do redis.call('sadd', KEYS[2], ARGV[i]) end "
+                    + "redis.call('pexpireat', KEYS[1], ARGV[4]) "
+                    + "redis.call('pexpireat', KEYS[2], ARGV[4]) "
+                    + "return 1", Long.class);
+
+    /**
+     * 释放下单资格，并把redis库存同步为数据库剩余库存，秒杀信息已过期删除时只移除用户
+     * <p>
+     * KEYS[1] 秒杀信息hash，KEYS[2] 已下单用户set；ARGV[1] 数据库剩余库存，ARGV[2..] 用户id
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 2, #ARGV do redis.call('srem', KEYS[2], ARGV[i]) end "
+                    + "if redis.call('exists', KEYS[1]) == 1 then redis.call('hset', KEYS[1], 'stock', ARGV[1]) end "
+                    + "return 1", Long.class);
+
+    /**
+     * 秒杀结束后redis中的数据再保留的时间
+     */
+    private static final Duration KEEP_AFTER_END = Duration.ofDays(1);
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 查询优惠券信息
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
-        //判断秒杀是否开始
-        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
-            return Result.fail("秒杀尚未开始");
-        }
-        //判断库存是否充足
-        if (voucher.getStock() < 1) {
-            // 没有库存
-            return Result.fail("没有库存");
-        }
-        // 获取锁 -> 提交事务 -> 释放锁
         Long userId = UserHolder.getUser().getId();
-        synchronized (userId.toString().intern()) {
-            // 获取代理
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
-//            return this.createVoucherOrder(voucherId);  this指向非代理对象spring事务失效（动态代理，创建代理对象）
+        long orderId = redisIdWorker.nextId(ORDER);
+        // 在redis中判断时间、库存和一人一单，成功时已扣减库存并写入订单stream
+        long code = admit(voucherId, userId, orderId);
+        if (code == 5) {
+            // 秒杀信息还没写入redis（如重启前创建的券），从数据库加载后再判断一次
+            if (!loadSeckillStock(voucherId)) {
+                return Result.fail("优惠券不存在");
+            }
+            code = admit(voucherId, userId, orderId);
+        }
+        if (code != 0) {
+            return Result.fail(failMessage(code));
         }
+        // 有资格，直接返回订单id，数据库由SeckillOrderConsumer写入
+        return Result.ok(orderId);
+    }
 
+    private long admit(Long voucherId, Long userId, long orderId) {
+        Long code = stringRedisTemplate.execute(SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), voucherId.toString(), String.valueOf(orderId));
+        return code == null ? 5 : code;
+    }
 
+    private static String failMessage(long code) {
+        switch ((int) code) {
+            case 1:
+                return "秒杀尚未开始";
+            case 2:
+                return "秒杀已经结束";
+            case 3:
+                return "库存不足";
+            case 4:
+                return "不能重复下单";
+            default:
+                return "优惠券不存在";
+        }
     }
 
-    @Transactional //事务控制
-    public Result createVoucherOrder(Long voucherId) {
-        //一人一单，查询是否存在
-        Long userId = UserHolder.getUser().getId();
-        Integer count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        if (count >= 1) {
-            //用户已经下过单
-            return Result.fail("已经购买过一次");
+    @Override
+    public boolean loadSeckillStock(Long voucherId) {
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            return false;
+        }
+        long begin = voucher.getBeginTime().atZone(ZONE).toInstant().toEpochMilli();
+        long end = voucher.getEndTime().atZone(ZONE).toInstant().toEpochMilli();
+        List<String> args = new ArrayList<>();
+        args.add(voucher.getStock().toString());
+        args.add(String.valueOf(begin));
+        args.add(String.valueOf(end));
+        args.add(String.valueOf(Math.max(end, System.currentTimeMillis()) + KEEP_AFTER_END.toMillis()));
+        // 已经在数据库中下过单的用户
+        listObjs(query().select("user_id").eq("voucher_id", voucherId).getWrapper())
+                .forEach(userId -> args.add(userId.toString()));
+        stringRedisTemplate.execute(LOAD_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId), args.toArray());
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 去掉已经存在的（消息重复投递）和同一批中重复的用户
+        Set<Long> voucherIds = new HashSet<>();
+        Set<Long> userIds = new HashSet<>();
+        voucherOrders.forEach(order -> {
+            voucherIds.add(order.getVoucherId());
+            userIds.add(order.getUserId());
+        });
+        Set<String> bought = new HashSet<>();
+        query().select("user_id", "voucher_id").in("voucher_id", voucherIds).in("user_id", userIds).list()
+                .forEach(order -> bought.add(order.getUserId() + ":" + order.getVoucherId()));
+        // 按优惠券分组，组内保持传入顺序；按优惠券id顺序加锁，避免并发批次互相死锁
+        Map<Long, List<VoucherOrder>> groups = new TreeMap<>();
+        for (VoucherOrder order : voucherOrders) {
+            if (bought.add(order.getUserId() + ":" + order.getVoucherId())) {
+                groups.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+            }
         }
-        //未下单
-        boolean success = seckillVoucherService.update()
-                //乐观锁CAS法解决超卖问题where id = ?and stock > 0;
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherId)
-                .gt("stock", 0)
-                .update();
-        //判断是否扣减库存成功
-        if (success) {
-            //创建订单
-            VoucherOrder voucherOrder = new VoucherOrder();
-            voucherOrder.setId(redisIdWorker.nextId(ORDER))
-                    .setUserId(UserHolder.getUser().getId())
-                    .setVoucherId(voucherId);
-            //保存在订单表
-            save(voucherOrder);
-            return Result.ok(voucherOrder.getId());
+        List<VoucherOrder> accepted = new ArrayList<>(voucherOrders.size());
+        List<VoucherOrder> rejected = new ArrayList<>();
+        groups.forEach((voucherId, orders) -> {
+            // 锁住库存行，只扣减能扣到的数量，一条UPDATE
+            SeckillVoucher voucher = seckillVoucherService.query().select("voucher_id", "stock")
+                    .eq("voucher_id", voucherId).last("for update").one();
+            int stock = voucher == null || voucher.getStock() == null ? 0 : Math.max(0, voucher.getStock());
+            int fit = Math.min(stock, orders.size());
+            if (fit > 0) {
+                seckillVoucherService.update()
+                        .setSql("stock = stock - " + fit)
+                        .eq("voucher_id", voucherId)
+                        .update();
+                accepted.addAll(orders.subList(0, fit));
+            }
+            if (fit < orders.size()) {
+                log.error("数据库库存不足，优惠券：{}，库存：{}，订单数：{}", voucherId, stock, orders.size());
+                rejected.addAll(orders.subList(fit, orders.size()));
+            }
+        });
+        // 一条多行INSERT写入订单
+        if (!accepted.isEmpty()) {
+            getBaseMapper().insertBatch(accepted);
         }
-        //失败
-        return Result.fail("活动已结束");
+        return rejected;
+    }
+
+    @Override
+    public void releaseSeckill(List<VoucherOrder> voucherOrders) {
+        Map<Long, List<String>> userIds = new TreeMap<>();
+        voucherOrders.forEach(order -> userIds.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>())
+                .add(order.getUserId().toString()));
+        userIds.forEach((voucherId, users) -> {
+            // 订单没有写入说明数据库已经没有库存，redis中多出的库存不能再放人进来
+            List<String> args = new ArrayList<>(users.size() + 1);
+            args.add("0");
+            args.addAll(users);
+            stringRedisTemplate.execute(RELEASE_SCRIPT,
+                    Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId), args.toArray());
+        });
     }
 }
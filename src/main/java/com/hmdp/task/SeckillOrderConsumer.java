@@ -0,0 +1,437 @@
+package com.hmdp.task;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+
+/**
+ * 秒杀订单入库
+ * <p>
+ * 秒杀脚本把订单写入stream（stream:orders），这里用消费者组读取：每个工作线程一次读一批，
+ * 在一个事务中扣减库存并用一条多行INSERT写入，提交后再XACK并XDEL，没确认的消息留在pending中。
+ * 数据库库存不足没有写入的订单，释放下单资格并把redis库存清零后确认，不再重试。
+ * 整批失败时逐条重试，仍然失败的留在pending，由定时任务在空闲超过claim-idle后XCLAIM重新处理
+ * （包括已经下线节点的消息）；投递次数达到max-deliveries或格式不正确的消息移到死信stream（stream:orders:dead）。
+ */
+@Slf4j
+@Component
+public class SeckillOrderConsumer implements ApplicationRunner {
+
+    /**
+     * 没有pending消息、空闲超过该时间的消费者视为已下线，从消费者组中删除
+     */
+    private static final Duration CONSUMER_EXPIRE = Duration.ofHours(1);
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /**
+     * 最近吞吐量统计的秒数
+     */
+    private static final int RECENT_SECONDS = 60;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.seckill.stream.workers:2}")
+    private int workers;
+
+    @Value("${hmdp.seckill.stream.batch-size:100}")
+    private int batchSize;
+
+    @Value("${hmdp.seckill.stream.block-millis:2000}")
+    private long blockMillis;
+
+    @Value("${hmdp.seckill.stream.claim-idle-millis:30000}")
+    private long claimIdleMillis;
+
+    @Value("${hmdp.seckill.stream.max-deliveries:3}")
+    private long maxDeliveries;
+
+    /**
+     * 本节点的标识，消费者名为 节点标识-序号，每次启动都不同
+     */
+    private final String nodeId = IdUtil.fastSimpleUUID().substring(0, 8);
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchFailures = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder claimed = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder persistMillis = new LongAdder();
+    private final LongAdder compensated = new LongAdder();
+
+    /**
+     * 最近RECENT_SECONDS秒每秒的入库数，按 秒数 % RECENT_SECONDS 循环使用，recentSeconds记录每格对应的秒数
+     */
+    private final long[] recentCounts = new long[RECENT_SECONDS];
+    private final long[] recentSeconds = new long[RECENT_SECONDS];
+
+    @Override
+    public void run(ApplicationArguments args) {
+        createGroup();
+        running = true;
+        AtomicInteger index = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> new Thread(r, "seckill-order-" + index.getAndIncrement()));
+        for (int i = 0; i < workers; i++) {
+            String consumer = nodeId + "-" + i;
+            executor.execute(() -> consume(consumer));
+        }
+        log.info("秒杀订单消费者启动，节点：{}，线程数：{}", nodeId, workers);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 创建消费者组（stream不存在时一起创建），已存在时忽略
+     */
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(bytes(SECKILL_ORDER_STREAM), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (!StrUtil.contains(String.valueOf(e.getMessage()), "BUSYGROUP")
+                    && (e.getCause() == null || !StrUtil.contains(String.valueOf(e.getCause().getMessage()), "BUSYGROUP"))) {
+                throw e;
+            }
+        }
+    }
+
+    private void consume(String consumer) {
+        StreamReadOptions options = StreamReadOptions.empty()
+                .count(batchSize)
+                .block(Duration.ofMillis(blockMillis));
+        while (running) {
+            try {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(SECKILL_ORDER_GROUP, consumer), options,
+                        StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+                if (records == null || records.isEmpty()) {
+                    continue;
+                }
+                handle(records);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("读取秒杀订单stream失败", e);
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 解析一批消息并入库，格式不正确的直接移到死信stream
+     */
+    private void handle(List<? extends MapRecord<String, ?, ?>> records) {
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        List<RecordId> ids = new ArrayList<>(records.size());
+        for (MapRecord<String, ?, ?> record : records) {
+            VoucherOrder order = parse(record);
+            if (order == null) {
+                malformed.increment();
+                deadLetter(record.getId(), fields(record), "malformed", 0);
+                continue;
+            }
+            orders.add(order);
+            ids.add(record.getId());
+        }
+        if (!orders.isEmpty()) {
+            persist(orders, ids);
+        }
+    }
+
+    /**
+     * 整批在一个事务中写入，失败时逐条写入，写入成功（事务已提交）的才确认；库存不足的补偿后确认
+     */
+    private void persist(List<VoucherOrder> orders, List<RecordId> ids) {
+        long begin = System.currentTimeMillis();
+        try {
+            List<VoucherOrder> rejected = voucherOrderService.createVoucherOrders(orders);
+            compensate(rejected);
+            ack(ids.toArray(new RecordId[0]));
+            recordPersisted(orders.size() - rejected.size());
+            batches.increment();
+        } catch (Exception e) {
+            batchFailures.increment();
+            log.warn("秒杀订单批量入库失败，逐条重试，数量：{}", orders.size(), e);
+            for (int i = 0; i < orders.size(); i++) {
+                try {
+                    List<VoucherOrder> rejected = voucherOrderService.createVoucherOrders(Collections.singletonList(orders.get(i)));
+                    compensate(rejected);
+                    ack(ids.get(i));
+                    recordPersisted(1 - rejected.size());
+                } catch (Exception ex) {
+                    // 不确认，留在pending中等待重新投递
+                    failed.increment();
+                    log.error("秒杀订单入库失败，消息：{}，订单：{}", ids.get(i), orders.get(i), ex);
+                }
+            }
+        } finally {
+            persistMillis.add(System.currentTimeMillis() - begin);
+        }
+    }
+
+    /**
+     * 数据库库存不足的订单：用户已经收到下单成功，这里释放下单资格、redis库存清零并记录，由人工跟进
+     */
+    private void compensate(List<VoucherOrder> rejected) {
+        if (rejected.isEmpty()) {
+            return;
+        }
+        voucherOrderService.releaseSeckill(rejected);
+        compensated.add(rejected.size());
+        log.error("数据库库存不足，订单未入库，已释放下单资格并将redis库存清零，订单：{}", rejected);
+    }
+
+    private synchronized void recordPersisted(long count) {
+        persisted.add(count);
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % RECENT_SECONDS);
+        if (recentSeconds[slot] != second) {
+            recentSeconds[slot] = second;
+            recentCounts[slot] = 0;
+        }
+        recentCounts[slot] += count;
+    }
+
+    /**
+     * 最近RECENT_SECONDS秒（启动不足时按启动时长）的平均入库速度（条/秒）
+     */
+    private synchronized double recentThroughput(long uptimeSeconds) {
+        long second = System.currentTimeMillis() / 1000;
+        long count = 0;
+        for (int i = 0; i < RECENT_SECONDS; i++) {
+            if (second - recentSeconds[i] < RECENT_SECONDS) {
+                count += recentCounts[i];
+            }
+        }
+        return (double) count / Math.min(RECENT_SECONDS, uptimeSeconds);
+    }
+
+    /**
+     * 定时处理空闲过久的pending消息：超过投递次数的移到死信stream，其余由本节点认领后重新入库
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.stream.claim-interval-millis:10000}")
+    public void reclaim() {
+        if (!running) {
+            return;
+        }
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize);
+            List<RecordId> claimIds = new ArrayList<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() < claimIdleMillis) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                            .range(SECKILL_ORDER_STREAM, Range.closed(message.getIdAsString(), message.getIdAsString()));
+                    Map<String, String> fields = records == null || records.isEmpty()
+                            ? new LinkedHashMap<>() : fields(records.get(0));
+                    deadLetter(message.getId(), fields, "max deliveries exceeded", message.getTotalDeliveryCount());
+                } else {
+                    claimIds.add(message.getId());
+                }
+            }
+            if (!claimIds.isEmpty()) {
+                // 按最小空闲时间认领，其他节点同时认领时只有一个成功
+                RedisStreamCommands.XClaimOptions options = RedisStreamCommands.XClaimOptions
+                        .minIdle(Duration.ofMillis(claimIdleMillis))
+                        .ids(claimIds.toArray(new RecordId[0]));
+                List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                        connection.streamCommands().xClaim(bytes(SECKILL_ORDER_STREAM), SECKILL_ORDER_GROUP,
+                                nodeId + "-claim", options));
+                if (records != null && !records.isEmpty()) {
+                    claimed.add(records.size());
+                    List<MapRecord<String, String, String>> claimedRecords = new ArrayList<>(records.size());
+                    records.forEach(record -> claimedRecords.add(record.deserialize(RedisSerializer.string())));
+                    handle(claimedRecords);
+                }
+            }
+            removeIdleConsumers();
+        } catch (Exception e) {
+            log.error("认领秒杀订单pending消息失败", e);
+        }
+    }
+
+    /**
+     * 删除没有pending消息、长时间空闲的消费者（节点下线后留下的）
+     */
+    private void removeIdleConsumers() {
+        StreamOperations<String, Object, Object> ops = stringRedisTemplate.opsForStream();
+        StreamInfo.XInfoConsumers consumers = ops.consumers(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP);
+        consumers.forEach(consumer -> {
+            if (consumer.pendingCount() == 0 && consumer.idleTimeMs() > CONSUMER_EXPIRE.toMillis()
+                    && !consumer.consumerName().startsWith(nodeId + "-")) {
+                ops.deleteConsumer(SECKILL_ORDER_STREAM, Consumer.from(SECKILL_ORDER_GROUP, consumer.consumerName()));
+            }
+        });
+    }
+
+    /**
+     * 把消息连同失败原因写入死信stream，然后从订单stream中确认并删除
+     */
+    private void deadLetter(RecordId id, Map<String, String> fields, String error, long deliveries) {
+        Map<String, String> dead = new LinkedHashMap<>(fields);
+        dead.put("sourceId", id.getValue());
+        dead.put("error", error);
+        dead.put("deliveries", String.valueOf(deliveries));
+        stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DEAD_STREAM, dead);
+        ack(id);
+        deadLettered.increment();
+        log.error("秒杀订单消息移到死信stream，消息：{}，原因：{}", id, error);
+    }
+
+    private void ack(RecordId... ids) {
+        StreamOperations<String, Object, Object> ops = stringRedisTemplate.opsForStream();
+        ops.acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, ids);
+        // 已入库的消息不再保留，stream长度即为积压量
+        ops.delete(SECKILL_ORDER_STREAM, ids);
+    }
+
+    /**
+     * 解析订单，下单时间取消息id中的时间戳；字段缺失或不是数字时返回null
+     */
+    private static VoucherOrder parse(MapRecord<String, ?, ?> record) {
+        Map<?, ?> value = record.getValue();
+        Long id = toLong(value.get("id"));
+        Long userId = toLong(value.get("userId"));
+        Long voucherId = toLong(value.get("voucherId"));
+        if (id == null || userId == null || voucherId == null) {
+            return null;
+        }
+        Long timestamp = record.getId().getTimestamp();
+        LocalDateTime createTime = timestamp == null ? LocalDateTime.now()
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZONE);
+        return new VoucherOrder()
+                .setId(id)
+                .setUserId(userId)
+                .setVoucherId(voucherId)
+                .setCreateTime(createTime);
+    }
+
+    private static Long toLong(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> fields(MapRecord<String, ?, ?> record) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        record.getValue().forEach((k, v) -> fields.put(String.valueOf(k), String.valueOf(v)));
+        return fields;
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 入库统计和积压情况
+     *
+     * @return 入库数、批次数、补偿数、启动以来和最近一分钟的吞吐量（条/秒）、stream积压、pending数、最早未入库消息的等待时间、死信数量等
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long uptimeSeconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+        long batchCount = batches.sum();
+        stats.put("node", nodeId);
+        stats.put("workers", workers);
+        stats.put("persisted", persisted.sum());
+        stats.put("batches", batchCount);
+        stats.put("batchFailures", batchFailures.sum());
+        stats.put("failed", failed.sum());
+        stats.put("claimed", claimed.sum());
+        stats.put("deadLettered", deadLettered.sum());
+        stats.put("malformed", malformed.sum());
+        stats.put("avgBatchMillis", batchCount == 0 ? 0 : persistMillis.sum() / batchCount);
+        stats.put("compensated", compensated.sum());
+        stats.put("throughputAvg", (double) persisted.sum() / uptimeSeconds);
+        stats.put("throughputRecent", recentThroughput(uptimeSeconds));
+        StreamOperations<String, Object, Object> ops = stringRedisTemplate.opsForStream();
+        // 已入库的消息会被删除，stream中剩下的都是未入库的
+        stats.put("backlog", ops.size(SECKILL_ORDER_STREAM));
+        stats.put("pending", ops.pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP).getTotalPendingMessages());
+        List<MapRecord<String, Object, Object>> oldest = ops.range(SECKILL_ORDER_STREAM, Range.unbounded(),
+                RedisZSetCommands.Limit.limit().count(1));
+        Long oldestTimestamp = oldest == null || oldest.isEmpty() ? null : oldest.get(0).getId().getTimestamp();
+        stats.put("lagMillis", oldestTimestamp == null ? 0 : System.currentTimeMillis() - oldestTimestamp);
+        stats.put("deadLetters", ops.size(SECKILL_ORDER_DEAD_STREAM));
+        return stats;
+    }
+}
@@ -0,0 +1,171 @@
+package com.hmdp.task;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 店铺缓存预热
+ * <p>
+ * 启动时和定时任务按id分页读取tb_shop，用pipeline批量写入逻辑过期缓存，
+ * 避免冷启动时大量请求未命中、同时查询数据库。
+ * 多个节点通过redis锁保证同一时间只有一个节点在预热。
+ * 只有店铺缓存使用逻辑过期或XFetch策略时才预热，其他策略读取的是普通缓存，写入逻辑过期数据反而会被当作脏数据。
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmUpTask implements ApplicationRunner {
+
+    private static final String LOCK_NAME = "warm-up:shop";
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.cache.warm-up.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * all：全部店铺；hot：销量最高的hot-limit个店铺
+     */
+    @Value("${hmdp.cache.warm-up.mode:all}")
+    private String mode;
+
+    @Value("${hmdp.cache.warm-up.hot-limit:1000}")
+    private int hotLimit;
+
+    @Value("${hmdp.cache.warm-up.page-size:500}")
+    private int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile long total;
+    private volatile long written;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        warmUp();
+    }
+
+    @Scheduled(cron = "${hmdp.cache.warm-up.cron:0 0/20 * * * ?}")
+    public void scheduledWarmUp() {
+        warmUp();
+    }
+
+    /**
+     * 执行一次预热，已经在预热或其他节点在预热时直接返回
+     */
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        CacheStrategy strategy = cacheClient.getStrategy(CACHE_SHOP_KEY);
+        if (strategy != CacheStrategy.LOGICAL_EXPIRE && strategy != CacheStrategy.XFETCH) {
+            log.info("店铺缓存策略为{}，不需要预热", strategy);
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        SimpleRedisLock lock = new SimpleRedisLock(LOCK_NAME, stringRedisTemplate);
+        try {
+            if (!lock.tryLock(TimeUnit.MINUTES.toSeconds(CACHE_SHOP_TTL))) {
+                return;
+            }
+            try {
+                doWarmUp();
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("店铺缓存预热失败", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void doWarmUp() {
+        boolean hot = "hot".equalsIgnoreCase(mode);
+        total = hot ? Math.min(hotLimit, shopService.count()) : shopService.count();
+        written = 0;
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        if (hot) {
+            // 热点子集按销量倒序分页
+            for (int page = 0; written < total; page++) {
+                int limit = (int) Math.min(pageSize, total - written);
+                List<Shop> shops = shopService.query().orderByDesc("sold")
+                        .last("limit " + (long) page * pageSize + "," + limit).list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                write(shops);
+            }
+        } else {
+            // 全部店铺按id分页，避免OFFSET
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopService.query().gt("id", lastId)
+                        .orderByAsc("id").last("limit " + pageSize).list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                write(shops);
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+        }
+        endTime = System.currentTimeMillis();
+        log.info("店铺缓存预热完成，数量：{}，耗时：{}ms", written, endTime - startTime);
+    }
+
+    private void write(List<Shop> shops) {
+        Map<String, Shop> values = new HashMap<>(shops.size() * 2);
+        shops.forEach(shop -> values.put(CACHE_SHOP_KEY + shop.getId(), shop));
+        // 逻辑过期时间附加随机值，避免整批同时过期
+        cacheClient.setBatchWitchLogicalExpire(values, CACHE_SHOP_TTL, CACHE_SHOP_TTL / 2, TimeUnit.MINUTES);
+        written += shops.size();
+        log.debug("店铺缓存预热进度：{}/{}", written, total);
+    }
+
+    /**
+     * 预热进度和吞吐量
+     */
+    public Map<String, Object> getStats() {
+        long end = endTime > 0 ? endTime : System.currentTimeMillis();
+        long elapsed = startTime > 0 ? end - startTime : 0;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("running", running.get());
+        stats.put("total", total);
+        stats.put("written", written);
+        stats.put("progress", total > 0 ? (double) written / total : 0);
+        stats.put("elapsedMillis", elapsed);
+        stats.put("perSecond", elapsed > 0 ? written * 1000.0 / elapsed : 0);
+        return stats;
+    }
+}
@@ -0,0 +1,236 @@
+package com.hmdp.task;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.ShopSortKey;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SHOP_RANK_CHANGED_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_RANK_REBUILDING_KEY;
+
+/**
+ * 店铺排行重建
+ * <p>
+ * 日常由店铺新增、修改增量更新排行，这里启动时和定时全量重建一次，修正漏掉的更新。
+ * 按id分页读取tb_shop写入临时zset，全部写完后RENAME覆盖正式key，重建过程中查询不受影响。
+ * 重建期间设置重建标记，增量更新时把店铺id记到变更集合中，RENAME后按数据库重放这些店铺，
+ * 避免重建期间的更新被旧数据覆盖。多个节点通过redis锁保证同一时间只有一个节点在重建。
+ */
+@Slf4j
+@Component
+public class ShopRankRebuildTask implements ApplicationRunner {
+
+    private static final String LOCK_NAME = "rank:shop";
+
+    private static final String TMP_SUFFIX = ":rebuilding";
+
+    /**
+     * 重建标记的过期时间，与重建锁一致，重建异常退出时标记自动清除
+     */
+    private static final long REBUILD_TIMEOUT_SECONDS = 600;
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.shop.listing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${hmdp.shop.listing.page-size:1000}")
+    private int pageSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile long lastShops;
+    private volatile long lastMillis;
+    private volatile long lastFinishTime;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        rebuild();
+    }
+
+    @Scheduled(cron = "${hmdp.shop.listing.rebuild-cron:0 30 3 * * ?}")
+    public void scheduledRebuild() {
+        rebuild();
+    }
+
+    /**
+     * 执行一次重建，已经在重建或其他节点在重建时直接返回
+     */
+    public void rebuild() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        SimpleRedisLock lock = new SimpleRedisLock(LOCK_NAME, stringRedisTemplate);
+        try {
+            if (!lock.tryLock(REBUILD_TIMEOUT_SECONDS)) {
+                return;
+            }
+            try {
+                doRebuild();
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("店铺排行重建失败", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void doRebuild() {
+        long start = System.currentTimeMillis();
+        long count = 0;
+        List<ShopType> types = shopTypeService.list();
+        // 清掉上次异常退出留下的变更记录，再设置重建标记，此后的增量更新都会记录店铺id
+        stringRedisTemplate.delete(SHOP_RANK_CHANGED_KEY);
+        stringRedisTemplate.opsForValue().set(SHOP_RANK_REBUILDING_KEY, "1", REBUILD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        try {
+            // 上次异常退出留下的临时key中可能有已删除的店铺，先删除
+            Set<String> staleKeys = new HashSet<>();
+            for (ShopType type : types) {
+                for (ShopSortKey sortKey : ShopSortKey.values()) {
+                    staleKeys.add(sortKey.keyOf(type.getId()) + TMP_SUFFIX);
+                }
+            }
+            stringRedisTemplate.delete(staleKeys);
+            count = writeRanks(types);
+        } finally {
+            stringRedisTemplate.delete(SHOP_RANK_REBUILDING_KEY);
+        }
+        // 重放重建期间变更过的店铺
+        int replayed = replayChanged(types);
+        lastShops = count;
+        lastFinishTime = System.currentTimeMillis();
+        lastMillis = lastFinishTime - start;
+        log.info("店铺排行重建完成，数量：{}，重放：{}，耗时：{}ms", count, replayed, lastMillis);
+    }
+
+    /**
+     * 写入临时zset后覆盖正式排行
+     *
+     * @return 店铺数量
+     */
+    private long writeRanks(List<ShopType> types) {
+        long count = 0;
+        // 写入过的临时key
+        Set<String> tmpKeys = new LinkedHashSet<>();
+        long lastId = 0;
+        while (true) {
+            List<Shop> shops = shopService.query().select("id", "type_id", "score", "sold", "comments", "avg_price")
+                    .gt("id", lastId).orderByAsc("id").last("limit " + pageSize).list();
+            if (shops.isEmpty()) {
+                break;
+            }
+            // 按类型和排行分组，每个zset一次ZADD
+            Map<String, Set<ZSetOperations.TypedTuple<String>>> tuples = new HashMap<>();
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null) {
+                    continue;
+                }
+                for (ShopSortKey sortKey : ShopSortKey.values()) {
+                    tuples.computeIfAbsent(sortKey.keyOf(shop.getTypeId()) + TMP_SUFFIX, k -> new HashSet<>())
+                            .add(new DefaultTypedTuple<>(shop.getId().toString(), sortKey.scoreOf(shop)));
+                }
+            }
+            tuples.forEach((key, set) -> stringRedisTemplate.opsForZSet().add(key, set));
+            tmpKeys.addAll(tuples.keySet());
+            count += shops.size();
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        // 用新排行覆盖旧排行
+        for (String tmpKey : tmpKeys) {
+            stringRedisTemplate.rename(tmpKey, tmpKey.substring(0, tmpKey.length() - TMP_SUFFIX.length()));
+        }
+        // 已经没有店铺的类型删除旧排行
+        for (ShopType type : types) {
+            for (ShopSortKey sortKey : ShopSortKey.values()) {
+                String key = sortKey.keyOf(type.getId());
+                if (!tmpKeys.contains(key + TMP_SUFFIX)) {
+                    stringRedisTemplate.delete(key);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 按数据库中的最新值重新写入重建期间变更过的店铺：从其他类型的排行中移除，写入当前类型
+     * <p>
+     * 调用前重建标记已经删除，增量更新不再记录，读取后删除变更集合不会丢失记录
+     *
+     * @return 重放的店铺数量
+     */
+    private int replayChanged(List<ShopType> types) {
+        Set<String> members = stringRedisTemplate.opsForSet().members(SHOP_RANK_CHANGED_KEY);
+        stringRedisTemplate.delete(SHOP_RANK_CHANGED_KEY);
+        if (members == null || members.isEmpty()) {
+            return 0;
+        }
+        List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, Shop> shops = new HashMap<>();
+        shopService.query().select("id", "type_id", "score", "sold", "comments", "avg_price").in("id", ids).list()
+                .forEach(shop -> shops.put(shop.getId(), shop));
+        for (Long id : ids) {
+            String member = id.toString();
+            Shop shop = shops.get(id);
+            Long typeId = shop == null ? null : shop.getTypeId();
+            // 店铺已删除或换了类型时，重建读到的旧数据可能还在其他类型的排行中
+            for (ShopType type : types) {
+                if (type.getId().equals(typeId)) {
+                    continue;
+                }
+                for (ShopSortKey sortKey : ShopSortKey.values()) {
+                    stringRedisTemplate.opsForZSet().remove(sortKey.keyOf(type.getId()), member);
+                }
+            }
+            if (typeId == null) {
+                continue;
+            }
+            for (ShopSortKey sortKey : ShopSortKey.values()) {
+                stringRedisTemplate.opsForZSet().add(sortKey.keyOf(shop.getTypeId()), member, sortKey.scoreOf(shop));
+            }
+        }
+        return ids.size();
+    }
+
+    /**
+     * 最近一次重建的结果
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("running", running.get());
+        stats.put("shops", lastShops);
+        stats.put("elapsedMillis", lastMillis);
+        stats.put("finishTime", lastFinishTime);
+        return stats;
+    }
+}
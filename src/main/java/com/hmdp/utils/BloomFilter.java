@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.HashUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 布隆过滤器，用于在查询缓存前拦截一定不存在的id（解决缓存穿透）
+ * <p>
+ * 根据预计元素数量和误判率计算位数组大小和哈希次数，位数组大小不超过内存上限。
+ * 线程安全，可以在查询的同时写入新元素。
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+
+    private final long bitSize;
+
+    private final int hashCount;
+
+    /**
+     * 被拦截的查询次数
+     */
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * 放行的查询次数
+     */
+    private final LongAdder passedCount = new LongAdder();
+
+    /**
+     * @param expectedInsertions 预计元素数量
+     * @param fpp                期望误判率
+     * @param maxBytes           位数组最大占用字节数
+     */
+    public BloomFilter(long expectedInsertions, double fpp, long maxBytes) {
+        long n = Math.max(1L, expectedInsertions);
+        // m = -n * ln(p) / (ln2)^2
+        long optimalBits = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        long m = Math.max(64L, Math.min(optimalBits, maxBytes * 8));
+        this.bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, (m + 63) / 64));
+        this.bitSize = bits.length() * 64L;
+        // k = m / n * ln2
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+    }
+
+    /**
+     * 添加元素
+     */
+    public void put(Object value) {
+        long[] hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            long index = index(hash, i);
+            int slot = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            do {
+                old = bits.get(slot);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(slot, old, old | mask));
+        }
+    }
+
+    /**
+     * 判断元素是否可能存在，返回false表示一定不存在
+     */
+    public boolean mightContain(Object value) {
+        long[] hash = hash(value);
+        for (int i = 0; i < hashCount; i++) {
+            long index = index(hash, i);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                rejectedCount.increment();
+                return false;
+            }
+        }
+        passedCount.increment();
+        return true;
+    }
+
+    private long[] hash(Object value) {
+        return HashUtil.murmur128(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 双重哈希：h(i) = h1 + i * h2
+     */
+    private long index(long[] hash, int i) {
+        return ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % bitSize;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getPassedCount() {
+        return passedCount.sum();
+    }
+}
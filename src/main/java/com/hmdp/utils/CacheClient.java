@@ -1,34 +1,166 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.hmdp.entity.Shop;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 import org.yaml.snakeyaml.events.Event;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * redis工具类
+ * <p>
+ * 可选开启进程内一级缓存（L1），存放已经反序列化好的对象，redis作为二级缓存（L2）。
+ * 删除缓存时通过redis发布订阅通知所有节点清除各自的L1。
  */
 @Component
 @Slf4j
-public class CacheClient {
+public class CacheClient implements MessageListener {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 当前节点标识，收到自己发出的失效消息时忽略
+     */
+    private final String nodeId = UUID.fastUUID().toString(true);
+
+    /**
+     * 进程内一级缓存 key -> RedisData（data为已反序列化的对象）
+     */
+    private final LRUCache<String, RedisData> localCache;
+
+    private final boolean localEnabled;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    private final CacheMetrics cacheMetrics;
+
+    private final CacheCompressor compressor;
+
+    /**
+     * 热点key的进程内副本，未开启一级缓存时只缓存热点key，存活时间很短
+     */
+    private final LRUCache<String, RedisData> hotCache;
+
+    /**
+     * 响应体前缀的进程内副本 key -> redis中的原始值（已解压，含逻辑过期时间），
+     * 容量和存活时间与一级缓存一致，未开启一级缓存时与热点key副本一致
+     */
+    private final LRUCache<String, byte[]> bodyCache;
+
+    /**
+     * key前缀 -> 布隆过滤器，未注册的前缀不做拦截
+     */
+    private final Map<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    /**
+     * 正在加载的key -> 加载结果，同一个JVM内并发未命中同一个key时共享一次加载
+     */
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * key前缀 -> 编解码器，未注册的前缀使用JSON
+     */
+    private final Map<String, CacheCodec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * key前缀 -> 查询策略，未注册的前缀使用PASS_THROUGH
+     */
+    private final Map<String, CacheStrategy> strategies = new ConcurrentHashMap<>();
+
+    /**
+     * key前缀 -> 每个hash桶的条数，注册后该前缀的缓存不再一个key一个string，
+     * 而是存到 前缀 + "bucket:" + id/桶大小 的hash中，field为id
+     */
+    private final Map<String, Integer> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * 写入hash桶中的一条，桶的过期时间只延长不缩短；写入永不过期的条目时去掉桶的过期时间
+     */
+    private static final byte[] BUCKET_SET_SCRIPT = ("local ttl = redis.call('pttl', KEYS[1]) "
+            + "redis.call('hset', KEYS[1], ARGV[1], ARGV[2]) "
+            + "local expire = tonumber(ARGV[3]) "
+            + "if expire <= 0 then redis.call('persist', KEYS[1]) "
+            + "elseif ttl == -2 or (ttl >= 0 and ttl < expire) then redis.call('pexpire', KEYS[1], expire) end "
+            + "return 1").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 没抢到重建锁的key -> 重建完成信号，由重建完成消息唤醒
+     */
+    private final Map<String, CompletableFuture<Void>> rebuildWaiters = new ConcurrentHashMap<>();
+
+    /**
+     * 没抢到重建锁时最多等待的时间，超时直接查询数据库
+     */
+    @Value("${hmdp.cache.mutex.wait-millis:200}")
+    private long mutexWaitMillis;
+
+    /**
+     * XFetch提前刷新系数，越大越倾向提前刷新
+     */
+    @Value("${hmdp.cache.xfetch.beta:1.0}")
+    private double xfetchBeta;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       HotKeyDetector hotKeyDetector,
+                       CacheRebuildExecutor rebuildExecutor,
+                       CacheMetrics cacheMetrics,
+                       CacheCompressor compressor,
+                       @Value("${hmdp.cache.local.enabled:false}") boolean localEnabled,
+                       @Value("${hmdp.cache.local.capacity:1000}") int localCapacity,
+                       @Value("${hmdp.cache.local.ttl-seconds:5}") long localTtlSeconds,
+                       @Value("${hmdp.cache.hot-key.max-keys:100}") int hotCapacity,
+                       @Value("${hmdp.cache.hot-key.local-ttl-millis:1000}") long hotTtlMillis) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.hotKeyDetector = hotKeyDetector;
+        this.rebuildExecutor = rebuildExecutor;
+        this.cacheMetrics = cacheMetrics;
+        this.compressor = compressor;
+        this.localEnabled = localEnabled;
+        this.localCache = CacheUtil.newLRUCache(localCapacity, TimeUnit.SECONDS.toMillis(localTtlSeconds));
+        this.hotCache = CacheUtil.newLRUCache(hotCapacity, hotTtlMillis);
+        this.bodyCache = localEnabled
+                ? CacheUtil.newLRUCache(localCapacity, TimeUnit.SECONDS.toMillis(localTtlSeconds))
+                : CacheUtil.newLRUCache(hotCapacity, hotTtlMillis);
     }
 
     /**
@@ -38,10 +170,14 @@ public class CacheClient {
      * @param key   key
      */
     public void Set(String key, Object value) {
-        // obj -> json
-        String JsonStr = JSONUtil.toJsonStr(value);
+        long start = System.nanoTime();
+        // obj -> bytes
+        byte[] bytes = codecOf(key).encode(value);
         // 存到redis
-        stringRedisTemplate.opsForValue().set(key, JsonStr);
+        setBytes(key, bytes, null, null);
+        // 通知其他节点旧值失效
+        evictLocal(key);
+        cacheMetrics.record(prefixOf(key), CacheMetrics.Op.WRITE, start);
 
 //        if (Objects.equals(stringRedisTemplate.opsForValue().get(key), JsonStr)) {
 //            //相等 存储成功
@@ -59,10 +195,14 @@ public class CacheClient {
      * @param timeUnit 时间单位
      */
     public void Set(String key, Object value, Long time, TimeUnit timeUnit) {
-        // obj -> json
-        String JsonStr = JSONUtil.toJsonStr(value);
+        long start = System.nanoTime();
+        // obj -> bytes
+        byte[] bytes = codecOf(key).encode(value);
         // 存到redis并设置过期时间
-        stringRedisTemplate.opsForValue().set(key, JsonStr, time, timeUnit);
+        setBytes(key, bytes, time, timeUnit);
+        // 通知其他节点旧值失效
+        evictLocal(key);
+        cacheMetrics.record(prefixOf(key), CacheMetrics.Op.WRITE, start);
     }
 
     /**
@@ -74,15 +214,79 @@ public class CacheClient {
      * @param timeUnit 时间单位
      */
     public void setWitchLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit) {
+        long start = System.nanoTime();
         //创建redisData对象
         RedisData redisData = new RedisData();
         //set数据
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
-        //obj -> json
-        String JsonStr = JSONUtil.toJsonStr(redisData);
+        long expireMillis = System.currentTimeMillis() + timeUnit.toMillis(time);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+        //obj -> bytes
+        byte[] bytes = codecOf(key).encodeWithExpire(value, expireMillis);
         //存入redis
-        stringRedisTemplate.opsForValue().set(key, JsonStr);
+        setBytes(key, bytes, null, null);
+        // 本节点直接放入新值，其他节点清除旧值
+        evictLocal(key);
+        putLocal(key, redisData);
+        cacheMetrics.record(prefixOf(key), CacheMetrics.Op.WRITE, start);
+    }
+
+    /**
+     * 用一个pipeline批量写入带逻辑过期时间的缓存（用于预热）
+     * <p>
+     * 每个key的逻辑过期时间额外加上[0, jitter)的随机值，避免同一批key同时过期。
+     * 写入后整批key一次广播，清除所有节点的一级缓存
+     *
+     * @param values   key -> java对象
+     * @param time     逻辑过期时间
+     * @param jitter   随机附加的最大时间
+     * @param timeUnit 时间单位
+     */
+    public void setBatchWitchLogicalExpire(Map<String, ?> values, Long time, Long jitter, TimeUnit timeUnit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        long jitterMillis = timeUnit.toMillis(jitter);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                long expireMillis = now + timeUnit.toMillis(time)
+                        + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0);
+                byte[] bytes = codecOf(key).encodeWithExpire(value, expireMillis);
+                writeBytes(connection, key, bytes, 0);
+            });
+            return null;
+        });
+        evictLocal(values.keySet());
+        cacheMetrics.record(prefixOf(values.keySet().iterator().next()), CacheMetrics.Op.WRITE, start);
+    }
+
+    /**
+     * 删除缓存，同时清除所有节点的一级缓存
+     *
+     * @param key key
+     */
+    public void delete(String key) {
+        long start = System.nanoTime();
+        deleteBytes(Collections.singleton(key));
+        evictLocal(key);
+        cacheMetrics.record(prefixOf(key), CacheMetrics.Op.WRITE, start);
+    }
+
+    /**
+     * 批量删除缓存：一次DEL，一次广播清除所有节点的一级缓存
+     *
+     * @param keys key集合
+     */
+    public void delete(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        deleteBytes(keys);
+        evictLocal(keys);
+        cacheMetrics.record(prefixOf(keys.iterator().next()), CacheMetrics.Op.WRITE, start);
     }
 
     /**
@@ -100,37 +304,331 @@ public class CacheClient {
      */
     public <R, ID> R queryWitchPassThrough
     (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        long start = System.nanoTime();
+        try {
+            return doQueryWitchPassThrough(KeyPrefix, id, type, dbFallback, time, timeUnit);
+        } finally {
+            cacheMetrics.record(KeyPrefix, CacheMetrics.Op.READ, start);
+        }
+    }
+
+    private <R, ID> R doQueryWitchPassThrough
+    (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        // 布隆过滤器判断id一定不存在，直接返回
+        if (!mightContain(KeyPrefix, id)) {
+            return null;
+        }
         String key = KeyPrefix + id;
+        // 先查一级缓存
+        R local = getLocal(key, type);
+        if (local != null) {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.LOCAL_HIT);
+            return local;
+        }
         // 在redis中查询
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
         //判断是否存在
-        if (StrUtil.isNotBlank(json)) {
+        if (bytes != null && bytes.length > 0) {
             // 存在直接返回
-            return JSONUtil.toBean(json, type);
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.HIT);
+            R r = codecOf(key).decode(bytes, type);
+            putLocal(key, r);
+            return r;
         }
         // 判断命中的是否是空值
-        if (json != null) {
+        if (bytes != null) {
             // 返回一个错误值
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.NULL_HIT);
+            return null;
+        }
+        cacheMetrics.count(KeyPrefix, CacheMetrics.Event.MISS);
+        // 不存在，根据id查询数据库（并发未命中只查一次）
+        return singleFlight(key, () -> loadAndSet(key, id, dbFallback, time, timeUnit));
+    }
+
+    /**
+     * 批量查询缓存（key = KeyPrefix + id）缓存空值
+     * <p>
+     * 一次MGET查询redis，未命中的id一次批量查询数据库，再用一个pipeline回填redis
+     *
+     * @param KeyPrefix  keyPrefix（Key的前缀）
+     * @param ids        id集合
+     * @param type       返回的类型
+     * @param dbFallback 数据库批量查询逻辑（例如listByIds）
+     * @param idGetter   从返回对象中取id
+     * @param time       时间
+     * @param timeUnit   时间单位
+     * @param <R>        返回的类型
+     * @param <ID>       ID类型
+     * @return id -> 对象，按ids的顺序，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatchWitchPassThrough
+    (String KeyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, ? extends Collection<R>> dbFallback,
+     Function<R, ID> idGetter, Long time, TimeUnit timeUnit) {
+        long start = System.nanoTime();
+        try {
+            return doQueryBatchWitchPassThrough(KeyPrefix, ids, type, dbFallback, idGetter, time, timeUnit);
+        } finally {
+            cacheMetrics.record(KeyPrefix, CacheMetrics.Op.READ, start);
+        }
+    }
+
+    private <R, ID> Map<ID, R> doQueryBatchWitchPassThrough
+    (String KeyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, ? extends Collection<R>> dbFallback,
+     Function<R, ID> idGetter, Long time, TimeUnit timeUnit) {
+        // 命中的结果，一级缓存、redis、数据库依次放入，返回前再按ids排序
+        Map<ID, R> result = new HashMap<>(ids.size() * 2);
+        // 布隆过滤器和一级缓存先过滤一遍
+        List<ID> redisIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!mightContain(KeyPrefix, id)) {
+                continue;
+            }
+            R local = getLocal(KeyPrefix + id, type);
+            if (local != null) {
+                cacheMetrics.count(KeyPrefix, CacheMetrics.Event.LOCAL_HIT);
+                result.put(id, local);
+            } else {
+                redisIds.add(id);
+            }
+        }
+        if (redisIds.isEmpty()) {
+            return inOrder(ids, result);
+        }
+        // 一次MGET（按桶存储时每个桶一次HMGET）查询redis
+        List<String> redisKeys = new ArrayList<>(redisIds.size());
+        for (ID id : redisIds) {
+            redisKeys.add(KeyPrefix + id);
+        }
+        List<byte[]> values = getBytes(redisKeys);
+        CacheCodec codec = codecOf(KeyPrefix);
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < redisIds.size(); i++) {
+            byte[] bytes = values.get(i);
+            ID id = redisIds.get(i);
+            if (bytes == null) {
+                cacheMetrics.count(KeyPrefix, CacheMetrics.Event.MISS);
+                missIds.add(id);
+            } else if (bytes.length > 0) {
+                cacheMetrics.count(KeyPrefix, CacheMetrics.Event.HIT);
+                R r = codec.decode(bytes, type);
+                putLocal(KeyPrefix + id, r);
+                result.put(id, r);
+            } else {
+                // 空字节为缓存的空值，跳过
+                cacheMetrics.count(KeyPrefix, CacheMetrics.Event.NULL_HIT);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return inOrder(ids, result);
+        }
+        // 未命中的id一次查询数据库
+        cacheMetrics.count(KeyPrefix, CacheMetrics.Event.REBUILD);
+        Collection<R> loaded = dbFallback.apply(missIds);
+        Map<ID, R> loadedMap = new HashMap<>(loaded.size() * 2);
+        for (R r : loaded) {
+            loadedMap.put(idGetter.apply(r), r);
+        }
+        // 一个pipeline回填redis，数据库中不存在的写入空值
+        long ttlMillis = timeUnit.toMillis(time);
+        long nullTtlMillis = TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL);
+        byte[] empty = new byte[0];
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                R r = loadedMap.get(id);
+                if (r == null) {
+                    writeBytes(connection, KeyPrefix + id, empty, nullTtlMillis);
+                } else {
+                    writeBytes(connection, KeyPrefix + id, codec.encode(r), ttlMillis);
+                }
+            }
+            return null;
+        });
+        for (ID id : missIds) {
+            R r = loadedMap.get(id);
+            if (r != null) {
+                putLocal(KeyPrefix + id, r);
+                result.put(id, r);
+            }
+        }
+        return inOrder(ids, result);
+    }
+
+    /**
+     * 按ids的顺序返回命中的结果，不存在的id跳过
+     */
+    private static <R, ID> Map<ID, R> inOrder(Collection<ID> ids, Map<ID, R> found) {
+        Map<ID, R> ordered = new LinkedHashMap<>(found.size() * 2);
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                ordered.put(id, r);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * 根据指定的key来查询缓存（key = KeyPrefix + id）互斥锁解决缓存击穿
+     * <p>
+     * 本节点内只有一个线程去竞争redis锁并查询数据库，其余线程等待它的结果。
+     * 锁被其他节点持有时订阅重建完成通知，收到后读取新值，超时则直接查询数据库
+     *
+     * @param KeyPrefix  keyPrefix（Key的前缀）
+     * @param id         id（类型）
+     * @param type       返回的类型
+     * @param dbFallback 数据库查询逻辑<id类型，返回类型>
+     * @param time       时间
+     * @param timeUnit   时间单位
+     * @param <R>        返回的类型
+     * @param <ID>       ID类型
+     * @return <R>
+     */
+    public <R, ID> R queryWitchMutex
+    (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        long start = System.nanoTime();
+        try {
+            return doQueryWitchMutex(KeyPrefix, id, type, dbFallback, time, timeUnit);
+        } finally {
+            cacheMetrics.record(KeyPrefix, CacheMetrics.Op.READ, start);
+        }
+    }
+
+    private <R, ID> R doQueryWitchMutex
+    (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        // 布隆过滤器判断id一定不存在，直接返回
+        if (!mightContain(KeyPrefix, id)) {
+            return null;
+        }
+        String key = KeyPrefix + id;
+        // 先查一级缓存
+        R local = getLocal(key, type);
+        if (local != null) {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.LOCAL_HIT);
+            return local;
+        }
+        // 在redis中查询
+        byte[] bytes = getBytes(key);
+        if (bytes != null && bytes.length > 0) {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.HIT);
+            R r = codecOf(key).decode(bytes, type);
+            putLocal(key, r);
+            return r;
+        }
+        // 命中空值
+        if (bytes != null) {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.NULL_HIT);
             return null;
         }
-        // 不存在，根据id查询数据库
+        cacheMetrics.count(KeyPrefix, CacheMetrics.Event.MISS);
+        // 未命中，本节点只有一个线程去竞争锁
+        return singleFlight(key, () -> {
+            String lockKey = LOCK_SHOP_KEY + id;
+            if (!tryLock(lockKey)) {
+                cacheMetrics.count(KeyPrefix, CacheMetrics.Event.LOCK_CONTENDED);
+                // 其他节点正在重建，等待重建完成的通知
+                return awaitRebuild(key, id, type, dbFallback);
+            }
+            try {
+                // 获取锁后再查一次redis，可能已经被重建
+                byte[] rebuilt = getBytes(key);
+                if (rebuilt != null) {
+                    return rebuilt.length == 0 ? null : codecOf(key).decode(rebuilt, type);
+                }
+                return loadAndSet(key, id, dbFallback, time, timeUnit);
+            } finally {
+                unLock(lockKey);
+                // 无论成功失败都通知等待的节点，失败时它们会各自查询数据库
+                stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+            }
+        });
+    }
+
+    /**
+     * 等待其他节点重建完成后读取新值
+     * <p>
+     * 先注册等待信号再查一次redis，避免在查询和注册之间错过通知；
+     * 超过等待时间或收到通知后仍未读到值时直接查询数据库，不写缓存
+     */
+    private <R, ID> R awaitRebuild(String key, ID id, Class<R> type, Function<ID, R> dbFallback) {
+        CompletableFuture<Void> signal = rebuildWaiters.computeIfAbsent(key, k -> new CompletableFuture<>());
+        try {
+            byte[] bytes = getBytes(key);
+            if (bytes == null) {
+                try {
+                    signal.get(mutexWaitMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    log.debug("等待缓存重建超时，直接查询数据库，key：{}", key);
+                    return dbFallback.apply(id);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return dbFallback.apply(id);
+                } catch (ExecutionException e) {
+                    return dbFallback.apply(id);
+                }
+                bytes = getBytes(key);
+            }
+            if (bytes == null) {
+                // 重建失败
+                return dbFallback.apply(id);
+            }
+            return bytes.length == 0 ? null : codecOf(key).decode(bytes, type);
+        } finally {
+            rebuildWaiters.remove(key, signal);
+        }
+    }
+
+    /**
+     * 查询数据库并写入redis，不存在时写入空值
+     */
+    private <R, ID> R loadAndSet(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        cacheMetrics.count(prefixOf(key), CacheMetrics.Event.REBUILD);
         R r = dbFallback.apply(id);
         // 不存在，返回错误
         if (r == null) {
             // 在redis这种写入空值
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setBytes(key, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
             return null;
         }
         // 存在，写入redis
         this.Set(key, r, time, timeUnit);
+        putLocal(key, r);
         return r;
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 同一个key的并发加载合并为一次：第一个线程执行loader，其余线程等待它的结果
+     *
+     * @param key    key
+     * @param loader 加载逻辑
+     * @return 加载结果
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R singleFlight(String key, Supplier<R> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return (R) existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
 
 
     /**
-     * 根据指定的key来查询缓存（key = KeyPrefix + id）互斥锁
+     * 根据指定的key来查询缓存（key = KeyPrefix + id）逻辑过期
      *
      * @param KeyPrefix  keyPrefix（Key的前缀）
      * @param id         id（类型）
@@ -144,44 +642,690 @@ public class CacheClient {
      */
     public <R, ID> R queryWitchLogicalExpire
     (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
-        String key = KeyPrefix + id;       // 在redis中查询
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        //判断是否存在
-        if (StrUtil.isBlank(shopJson)) {
+        long start = System.nanoTime();
+        try {
+            return doQueryWitchLogicalExpire(KeyPrefix, id, type, dbFallback, time, timeUnit);
+        } finally {
+            cacheMetrics.record(KeyPrefix, CacheMetrics.Op.READ, start);
+        }
+    }
+
+    private <R, ID> R doQueryWitchLogicalExpire
+    (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        // 布隆过滤器判断id一定不存在，直接返回
+        if (!mightContain(KeyPrefix, id)) {
             return null;
-            //不存在在数据库查询封装过期时间
         }
-        //判断缓存是否过期 json -> obj
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        String key = KeyPrefix + id;
+        // 先查一级缓存，逻辑未过期直接返回
+        RedisData localData = getLocalData(key);
+        if (localData != null && type.isInstance(localData.getData()) && localData.getExpireTime() != null
+                && localData.getExpireTime().isAfter(LocalDateTime.now())) {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.LOCAL_HIT);
+            return type.cast(localData.getData());
+        }
+        // 在redis中查询
+        byte[] bytes = getBytes(key);
+        if (bytes != null && bytes.length == 0) {
+            // 命中空值
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.NULL_HIT);
+            return null;
+        }
+        if (bytes == null) {
+            // 不存在（未预热或更新后被删除），本节点只有一个线程查询数据库并写入逻辑过期缓存
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.MISS);
+            return singleFlight(key, () -> loadWitchLogicalExpire(key, id, dbFallback, time, timeUnit));
+        }
+        //判断缓存是否过期 bytes -> obj
+        RedisData redisData = codecOf(key).decodeWithExpire(bytes, type);
+        R r = type.cast(redisData.getData());
         if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.HIT);
+            // 反序列化后的对象放入一级缓存
+            putLocal(key, redisData);
             return r;
         }
         //  已过期进行缓存重建
+        cacheMetrics.count(KeyPrefix, CacheMetrics.Event.STALE);
+        // 本节点已有重建任务，直接返回旧数据，不再竞争redis锁
+        if (rebuildExecutor.isPending(key)) {
+            return r;
+        }
         // 获取锁
         String lockeKey = LOCK_SHOP_KEY + id;
         boolean isLock = tryLock(lockeKey);
         //判断锁是否过期
-        if (isLock) {
-            //锁未过期，创建一个新线程，进行缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //查询数据库
-                    R r1 = dbFallback.apply(id);
-                    //写入redis
-                    this.setWitchLogicalExpire(key, r1, time, timeUnit);
-
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unLock(LOCK_SHOP_KEY + id);
-                }
-            });
+        if (!isLock) {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.LOCK_CONTENDED);
+            return r;
+        }
+        //锁未过期，提交到重建线程池
+        boolean submitted = rebuildExecutor.submit(key, () -> {
+            try {
+                cacheMetrics.count(KeyPrefix, CacheMetrics.Event.REBUILD);
+                //查询数据库
+                R r1 = dbFallback.apply(id);
+                //写入redis
+                this.setWitchLogicalExpire(key, r1, time, timeUnit);
+            } finally {
+                // 释放锁
+                unLock(lockeKey);
+            }
+        });
+        if (!submitted) {
+            // 已在重建或队列已满，释放锁并返回旧数据
+            unLock(lockeKey);
         }
         return r;
     }
 
+    /**
+     * 查询数据库，写入逻辑过期缓存，不存在时写入空值
+     */
+    private <R, ID> R loadWitchLogicalExpire(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        cacheMetrics.count(prefixOf(key), CacheMetrics.Event.REBUILD);
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            setBytes(key, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        this.setWitchLogicalExpire(key, r, time, timeUnit);
+        return r;
+    }
+
+    /**
+     * 按key前缀注册的策略查询缓存（key = KeyPrefix + id）
+     *
+     * @param KeyPrefix  keyPrefix（Key的前缀）
+     * @param id         id（类型）
+     * @param type       返回的类型
+     * @param dbFallback 数据库查询逻辑<id类型，返回类型>
+     * @param time       时间
+     * @param timeUnit   时间单位
+     * @param <R>        返回的类型
+     * @param <ID>       ID类型
+     * @return <R>
+     */
+    public <R, ID> R query
+    (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        switch (getStrategy(KeyPrefix)) {
+            case MUTEX:
+                return queryWitchMutex(KeyPrefix, id, type, dbFallback, time, timeUnit);
+            case LOGICAL_EXPIRE:
+                return queryWitchLogicalExpire(KeyPrefix, id, type, dbFallback, time, timeUnit);
+            case XFETCH:
+                return queryWitchXFetch(KeyPrefix, id, type, dbFallback, time, timeUnit);
+            default:
+                return queryWitchPassThrough(KeyPrefix, id, type, dbFallback, time, timeUnit);
+        }
+    }
+
+    /**
+     * 直接读取缓存中序列化好的响应体（key = KeyPrefix + id），只用于注册了 {@link ResponseBodyCodec} 的前缀
+     * <p>
+     * redis中的值逻辑未过期时原样返回其中的响应体，不做反序列化；缓存过期、空值或不存在时返回null，
+     * 由调用方走 {@link #query} 按对象查询（重建、加锁等逻辑都在那里）。
+     * 一级缓存保存的是redis中的原始值而不是对象，热点key同样不用反序列化。
+     * 前缀使用XFetch策略时，命中后同样按XFetch判断是否提前在后台刷新。
+     *
+     * @param KeyPrefix  keyPrefix（Key的前缀）
+     * @param id         id
+     * @param dbFallback 数据库查询逻辑，XFetch提前刷新时使用
+     * @param time       时间
+     * @param timeUnit   时间单位
+     * @return 响应体，需要按对象查询时返回null
+     */
+    public <R, ID> byte[] queryResponseBody
+    (String KeyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = KeyPrefix + id;
+        if (!(codecOf(key) instanceof ResponseBodyCodec)) {
+            return null;
+        }
+        // 布隆过滤器拦截的id交给按对象查询，在那里直接返回null并计数
+        BloomFilter bloomFilter = bloomFilters.get(KeyPrefix);
+        if (bloomFilter != null && !bloomFilter.mightContain(id)) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        // 记录访问，热点key照常探测；先查一级缓存
+        boolean hot = hotKeyDetector.record(key);
+        byte[] bytes = localEnabled || hot ? bodyCache.get(key, false) : null;
+        byte[] body = ResponseBodyCodec.freshBody(bytes, now);
+        if (body != null) {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.LOCAL_HIT);
+        } else {
+            bytes = getBytes(key);
+            body = ResponseBodyCodec.freshBody(bytes, now);
+            if (body == null) {
+                return null;
+            }
+            if (localEnabled || hot) {
+                bodyCache.put(key, bytes);
+            }
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.HIT);
+        }
+        if (getStrategy(KeyPrefix) == CacheStrategy.XFETCH
+                && shouldRefreshEarly(ResponseBodyCodec.expireMillis(bytes), ResponseBodyCodec.recomputeMillis(bytes))) {
+            // 本节点已有线程在刷新或队列已满时跳过，继续返回当前数据
+            rebuildExecutor.submit(key, () -> loadWitchXFetch(key, id, dbFallback, time, timeUnit));
+        }
+        cacheMetrics.record(KeyPrefix, CacheMetrics.Op.READ, start);
+        return body;
+    }
+
+    /**
+     * 为指定key前缀注册查询策略
+     *
+     * @param keyPrefix key前缀
+     * @param strategy  查询策略
+     */
+    public void registerStrategy(String keyPrefix, CacheStrategy strategy) {
+        strategies.put(keyPrefix, strategy);
+    }
+
+    /**
+     * 查询指定key前缀的查询策略，未注册时为 {@link CacheStrategy#PASS_THROUGH}
+     *
+     * @param keyPrefix key前缀
+     * @return 查询策略
+     */
+    public CacheStrategy getStrategy(String keyPrefix) {
+        return strategies.getOrDefault(keyPrefix, CacheStrategy.PASS_THROUGH);
+    }
+
+    /**
+     * 根据指定的key来查询缓存（key = KeyPrefix + id）概率提前刷新（XFetch）
+     * <p>
+     * 缓存中记录上一次重建耗时delta，每次读取时当 now - delta * beta * ln(rand) >= 过期时间 时提前在后台刷新，
+     * 越接近过期、重建越慢，提前刷新的概率越大，重建被分散开，一般情况下不需要锁。
+     * key真正过期（redis TTL）后，本节点内只有一个线程同步加载。
+     *
+     * @param KeyPrefix  keyPrefix（Key的前缀）
+     * @param id         id（类型）
+     * @param type       返回的类型
+     * @param dbFallback 数据库查询逻辑<id类型，返回类型>
+     * @param time       时间
+     * @param timeUnit   时间单位
+     * @param <R>        返回的类型
+     * @param <ID>       ID类型
+     * @return <R>
+     */
+    public <R, ID> R queryWitchXFetch
+    (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        long start = System.nanoTime();
+        try {
+            return doQueryWitchXFetch(KeyPrefix, id, type, dbFallback, time, timeUnit);
+        } finally {
+            cacheMetrics.record(KeyPrefix, CacheMetrics.Op.READ, start);
+        }
+    }
+
+    private <R, ID> R doQueryWitchXFetch
+    (String KeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        // 布隆过滤器判断id一定不存在，直接返回
+        if (!mightContain(KeyPrefix, id)) {
+            return null;
+        }
+        String key = KeyPrefix + id;
+        // 先查一级缓存
+        RedisData redisData = getLocalData(key);
+        if (redisData == null || !type.isInstance(redisData.getData()) || redisData.getExpireTime() == null) {
+            // 在redis中查询
+            byte[] bytes = getBytes(key);
+            if (bytes == null) {
+                // 已过期或不存在，同步加载
+                cacheMetrics.count(KeyPrefix, CacheMetrics.Event.MISS);
+                return singleFlight(key, () -> loadWitchXFetch(key, id, dbFallback, time, timeUnit));
+            }
+            if (bytes.length == 0) {
+                // 命中空值
+                cacheMetrics.count(KeyPrefix, CacheMetrics.Event.NULL_HIT);
+                return null;
+            }
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.HIT);
+            redisData = codecOf(key).decodeWithExpire(bytes, type);
+            putLocal(key, redisData);
+        } else {
+            cacheMetrics.count(KeyPrefix, CacheMetrics.Event.LOCAL_HIT);
+        }
+        R r = type.cast(redisData.getData());
+        if (shouldRefreshEarly(redisData)) {
+            // 本节点已有线程在刷新或队列已满时跳过，继续返回当前数据
+            rebuildExecutor.submit(key, () -> loadWitchXFetch(key, id, dbFallback, time, timeUnit));
+        }
+        return r;
+    }
+
+    /**
+     * XFetch判断是否提前刷新
+     */
+    private boolean shouldRefreshEarly(RedisData redisData) {
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long delta = redisData.getRecomputeMillis() == null ? 0 : redisData.getRecomputeMillis();
+        return shouldRefreshEarly(expireMillis, delta);
+    }
+
+    /**
+     * @param expireMillis 逻辑过期时间（epoch毫秒）
+     * @param delta        上一次重建耗时（毫秒）
+     */
+    private boolean shouldRefreshEarly(long expireMillis, long delta) {
+        // ln(rand) <= 0，提前量 = -delta * beta * ln(rand)
+        double gap = -delta * xfetchBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireMillis;
+    }
+
+    /**
+     * 查询数据库，记录耗时，连同逻辑过期时间一起写入redis（redis TTL与逻辑过期时间一致）
+     */
+    private <R, ID> R loadWitchXFetch(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        cacheMetrics.count(prefixOf(key), CacheMetrics.Event.REBUILD);
+        long start = System.currentTimeMillis();
+        R r = dbFallback.apply(id);
+        long recomputeMillis = Math.max(1L, System.currentTimeMillis() - start);
+        if (r == null) {
+            setBytes(key, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        long ttlMillis = timeUnit.toMillis(time);
+        long expireMillis = System.currentTimeMillis() + ttlMillis;
+        setBytes(key, codecOf(key).encodeWithExpire(r, expireMillis, recomputeMillis), ttlMillis, TimeUnit.MILLISECONDS);
+        RedisData redisData = new RedisData();
+        redisData.setData(r);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+        redisData.setRecomputeMillis(recomputeMillis);
+        evictLocal(key);
+        putLocal(key, redisData);
+        return r;
+    }
+
+    /**
+     * 为指定key前缀注册编解码器
+     *
+     * @param keyPrefix key前缀
+     * @param codec     编解码器
+     */
+    public void registerCodec(String keyPrefix, CacheCodec codec) {
+        codecs.put(keyPrefix, codec);
+    }
+
+    /**
+     * 根据key找到注册的前缀对应的编解码器，没有则使用JSON
+     */
+    private CacheCodec codecOf(String key) {
+        for (Map.Entry<String, CacheCodec> entry : codecs.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return JsonCacheCodec.INSTANCE;
+    }
+
+    /**
+     * key前缀（最后一个冒号及之前的部分），用于按前缀统计
+     */
+    private static String prefixOf(String key) {
+        return key.substring(0, key.lastIndexOf(':') + 1);
+    }
+
+    private byte[] getBytes(String key) {
+        byte[][] bucket = bucketOf(key);
+        if (bucket == null) {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            return compressor.decompress(stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey)));
+        }
+        byte[] entry = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.hGet(bucket[0], bucket[1]));
+        return readEntry(bucket, entry);
+    }
+
+    /**
+     * 批量读取，string存储用一次MGET，桶存储每个桶一次HMGET
+     *
+     * @return 与keys顺序一致，不存在的为null
+     */
+    private List<byte[]> getBytes(List<String> keys) {
+        if (bucketSizeOf(keys.get(0)) == null) {
+            byte[][] rawKeys = new byte[keys.size()][];
+            for (int i = 0; i < rawKeys.length; i++) {
+                rawKeys[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            List<byte[]> result = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                result.add(values == null ? null : compressor.decompress(values.get(i)));
+            }
+            return result;
+        }
+        // 按桶分组：桶key -> 在keys中的下标
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        List<byte[][]> refs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            byte[][] bucket = bucketOf(keys.get(i));
+            refs.add(bucket);
+            groups.computeIfAbsent(new String(bucket[0], StandardCharsets.UTF_8), k -> new ArrayList<>()).add(i);
+        }
+        byte[][] result = new byte[keys.size()][];
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            for (List<Integer> indexes : groups.values()) {
+                byte[][] fields = new byte[indexes.size()][];
+                for (int j = 0; j < fields.length; j++) {
+                    fields[j] = refs.get(indexes.get(j))[1];
+                }
+                List<byte[]> entries = connection.hMGet(refs.get(indexes.get(0))[0], fields);
+                for (int j = 0; j < fields.length; j++) {
+                    result[indexes.get(j)] = entries == null ? null : entries.get(j);
+                }
+            }
+            return null;
+        });
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            values.add(readEntry(refs.get(i), result[i]));
+        }
+        return values;
+    }
+
+    private void setBytes(String key, byte[] bytes, Long time, TimeUnit timeUnit) {
+        long ttlMillis = time == null ? 0 : timeUnit.toMillis(time);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            writeBytes(connection, key, bytes, ttlMillis);
+            return null;
+        });
+    }
+
+    /**
+     * 写入一个值，可以在pipeline中调用
+     *
+     * @param ttlMillis 过期时间，小于等于0不过期
+     */
+    private void writeBytes(RedisConnection connection, String key, byte[] bytes, long ttlMillis) {
+        byte[] value = compressor.compress(bytes);
+        byte[][] bucket = bucketOf(key);
+        if (bucket == null) {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            if (ttlMillis > 0) {
+                connection.pSetEx(rawKey, ttlMillis, value);
+            } else {
+                connection.set(rawKey, value);
+            }
+            return;
+        }
+        // hash的field不能单独设置过期时间，条目前8字节存过期时间戳（0不过期），读取时判断
+        long expireAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0;
+        byte[] entry = ByteBuffer.allocate(8 + value.length).putLong(expireAt).put(value).array();
+        connection.eval(BUCKET_SET_SCRIPT, ReturnType.INTEGER, 1,
+                bucket[0], bucket[1], entry, String.valueOf(ttlMillis).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void deleteBytes(Collection<String> keys) {
+        if (buckets.isEmpty()) {
+            stringRedisTemplate.delete(keys);
+            return;
+        }
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                byte[][] bucket = bucketOf(key);
+                if (bucket == null) {
+                    connection.del(key.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    connection.hDel(bucket[0], bucket[1]);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 解析桶中的条目，已过期的顺便删除并返回null
+     */
+    private byte[] readEntry(byte[][] bucket, byte[] entry) {
+        if (entry == null || entry.length < 8) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(entry);
+        long expireAt = buffer.getLong();
+        if (expireAt > 0 && expireAt <= System.currentTimeMillis()) {
+            stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.hDel(bucket[0], bucket[1]));
+            return null;
+        }
+        byte[] value = new byte[entry.length - 8];
+        buffer.get(value);
+        return compressor.decompress(value);
+    }
+
+    /**
+     * 为指定key前缀开启按桶存储
+     * <p>
+     * 同一个桶里的条目存在一个hash中，桶足够小时redis使用紧凑编码（listpack），比每条一个string省内存。
+     * 需要保证 hash-max-listpack-entries &gt;= bucketSize，hash-max-listpack-value &gt;= 单条字节数，否则退化为普通hash。
+     * 开启后原有的string缓存不再读取，按未命中处理
+     *
+     * @param keyPrefix  key前缀
+     * @param bucketSize 每个桶的条数，id/bucketSize相同的在一个桶
+     */
+    public void registerBucket(String keyPrefix, int bucketSize) {
+        buckets.put(keyPrefix, bucketSize);
+    }
+
+    /**
+     * 关闭指定key前缀的按桶存储，之后按普通string读写，已写入的桶不会自动删除
+     *
+     * @param keyPrefix key前缀
+     */
+    public void unregisterBucket(String keyPrefix) {
+        buckets.remove(keyPrefix);
+    }
+
+    private Integer bucketSizeOf(String key) {
+        if (buckets.isEmpty()) {
+            return null;
+        }
+        for (Map.Entry<String, Integer> entry : buckets.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {桶key, field}，未开启按桶存储的前缀返回null
+     */
+    private byte[][] bucketOf(String key) {
+        for (Map.Entry<String, Integer> entry : buckets.entrySet()) {
+            String prefix = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
+            String id = key.substring(prefix.length());
+            long bucketNo = NumberUtil.isLong(id) ? Long.parseLong(id) / entry.getValue()
+                    : Math.floorMod(id.hashCode(), entry.getValue());
+            return new byte[][]{
+                    (prefix + "bucket:" + bucketNo).getBytes(StandardCharsets.UTF_8),
+                    id.getBytes(StandardCharsets.UTF_8)};
+        }
+        return null;
+    }
+
+    /**
+     * 统计一批缓存实际占用的redis内存（MEMORY USAGE），按桶存储时统计涉及的桶
+     *
+     * @param keyPrefix key前缀
+     * @param ids       id集合
+     * @return 字节数
+     */
+    public long memoryUsage(String keyPrefix, Collection<?> ids) {
+        Set<String> storageKeys = new LinkedHashSet<>();
+        for (Object id : ids) {
+            String key = keyPrefix + id;
+            byte[][] bucket = bucketOf(key);
+            storageKeys.add(bucket == null ? key : new String(bucket[0], StandardCharsets.UTF_8));
+        }
+        Long total = stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+            long sum = 0;
+            for (String key : storageKeys) {
+                Object usage = connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8),
+                        key.getBytes(StandardCharsets.UTF_8));
+                if (usage instanceof Number) {
+                    sum += ((Number) usage).longValue();
+                }
+            }
+            return sum;
+        });
+        return total == null ? 0 : total;
+    }
+
+    /**
+     * 为指定key前缀注册（或替换）布隆过滤器
+     *
+     * @param keyPrefix   key前缀
+     * @param bloomFilter 已经装入全部id的布隆过滤器
+     */
+    public void registerBloomFilter(String keyPrefix, BloomFilter bloomFilter) {
+        bloomFilters.put(keyPrefix, bloomFilter);
+    }
+
+    /**
+     * 新增数据后把id加入对应前缀的布隆过滤器，并广播给其他节点，否则其他节点在重启前会一直拦截这个id
+     */
+    public void addToBloomFilter(String keyPrefix, Object id) {
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter == null) {
+            return;
+        }
+        bloomFilter.put(id);
+        stringRedisTemplate.convertAndSend(CACHE_BLOOM_ADD_CHANNEL,
+                nodeId + CACHE_INVALIDATE_SEPARATOR + keyPrefix + CACHE_INVALIDATE_SEPARATOR + id);
+    }
+
+    public BloomFilter getBloomFilter(String keyPrefix) {
+        return bloomFilters.get(keyPrefix);
+    }
+
+    private boolean mightContain(String keyPrefix, Object id) {
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter == null || bloomFilter.mightContain(id)) {
+            return true;
+        }
+        cacheMetrics.count(keyPrefix, CacheMetrics.Event.BLOOM_REJECT);
+        return false;
+    }
+
+    /**
+     * 查询进程内缓存，同时记录一次访问用于热点key探测
+     */
+    private RedisData getLocalData(String key) {
+        boolean hot = hotKeyDetector.record(key);
+        if (localEnabled) {
+            return localCache.get(key, false);
+        }
+        return hot ? hotCache.get(key, false) : null;
+    }
+
+    /**
+     * 查询一级缓存（仅缓存命中且类型匹配时返回）
+     */
+    private <R> R getLocal(String key, Class<R> type) {
+        RedisData data = getLocalData(key);
+        if (data == null || !type.isInstance(data.getData())) {
+            return null;
+        }
+        return type.cast(data.getData());
+    }
+
+    private void putLocal(String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        RedisData data = new RedisData();
+        data.setData(value);
+        putLocal(key, data);
+    }
+
+    /**
+     * 开启一级缓存时全部放入，否则只有热点key放入短期副本
+     */
+    private void putLocal(String key, RedisData data) {
+        if (data.getData() == null) {
+            return;
+        }
+        if (localEnabled) {
+            localCache.put(key, data);
+        } else if (hotKeyDetector.isHot(key)) {
+            hotCache.put(key, data);
+        }
+    }
+
+    /**
+     * 清除本节点一级缓存，并广播给其他节点
+     *
+     * @param key key
+     */
+    public void evictLocal(String key) {
+        if (!localEnabled && !hotKeyDetector.isEnabled()) {
+            return;
+        }
+        removeLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, nodeId + CACHE_INVALIDATE_SEPARATOR + key);
+    }
+
+    /**
+     * 批量清除一级缓存，多个key合并为一条广播消息
+     *
+     * @param keys key集合
+     */
+    public void evictLocal(Collection<String> keys) {
+        if (!localEnabled && !hotKeyDetector.isEnabled()) {
+            return;
+        }
+        StringBuilder body = new StringBuilder(nodeId);
+        for (String key : keys) {
+            removeLocal(key);
+            body.append(CACHE_INVALIDATE_SEPARATOR).append(key);
+        }
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, body.toString());
+    }
+
+    /**
+     * 收到其他节点的失效消息，清除本节点一级缓存；收到重建完成消息，唤醒等待该key的线程；
+     * 收到其他节点的布隆过滤器新增消息，把id加入本节点的布隆过滤器
+     * <p>
+     * 失效消息格式：节点标识|key1|key2...；重建完成消息为key；布隆过滤器新增消息格式：节点标识|前缀|id
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        if (CACHE_REBUILT_CHANNEL.equals(channel)) {
+            CompletableFuture<Void> signal = rebuildWaiters.get(body);
+            if (signal != null) {
+                signal.complete(null);
+            }
+            return;
+        }
+        List<String> parts = StrUtil.split(body, CACHE_INVALIDATE_SEPARATOR);
+        if (parts.size() < 2 || parts.get(0).equals(nodeId)) {
+            return;
+        }
+        if (CACHE_BLOOM_ADD_CHANNEL.equals(channel)) {
+            BloomFilter bloomFilter = parts.size() == 3 ? bloomFilters.get(parts.get(1)) : null;
+            if (bloomFilter != null) {
+                bloomFilter.put(parts.get(2));
+            }
+            return;
+        }
+        for (String key : parts.subList(1, parts.size())) {
+            removeLocal(key);
+        }
+    }
+
+    private void removeLocal(String key) {
+        localCache.remove(key);
+        hotCache.remove(key);
+        bodyCache.remove(key);
+    }
+
     /**
      * 获取锁
      *
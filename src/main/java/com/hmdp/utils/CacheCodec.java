@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码器，负责java对象与redis中字节的相互转换
+ * <p>
+ * 空字节数组表示缓存的空值，由CacheClient处理，不会交给编解码器
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存值
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码普通缓存值
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 编码带逻辑过期时间的缓存值
+     *
+     * @param value        java对象
+     * @param expireMillis 逻辑过期时间（epoch毫秒）
+     */
+    byte[] encodeWithExpire(Object value, long expireMillis);
+
+    /**
+     * 编码带逻辑过期时间和重建耗时的缓存值
+     *
+     * @param value           java对象
+     * @param expireMillis    逻辑过期时间（epoch毫秒）
+     * @param recomputeMillis 重建耗时（毫秒）
+     */
+    byte[] encodeWithExpire(Object value, long expireMillis, long recomputeMillis);
+
+    /**
+     * 解码带逻辑过期时间的缓存值，返回的RedisData中data已经是type类型
+     */
+    <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值压缩
+ * <p>
+ * 超过阈值的值用Deflater最快级别压缩，格式：头字节(1) + 原始长度(4) + 压缩数据。
+ * JSON和二进制编码的首字节都不会是头字节，所以压缩和未压缩的值可以同时存在，读取时按首字节判断。
+ * 压缩后没有变小的值按原样存储。
+ */
+@Component
+public class CacheCompressor {
+
+    private static final byte HEADER = (byte) 0xC5;
+
+    private static final int HEADER_LENGTH = 5;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final boolean enabled;
+
+    /**
+     * 超过该字节数才压缩
+     */
+    private final int threshold;
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    public CacheCompressor(@Value("${hmdp.cache.compress.enabled:false}") boolean enabled,
+                           @Value("${hmdp.cache.compress.threshold-bytes:1024}") int threshold) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+    }
+
+    /**
+     * 压缩，未开启、未超过阈值或压缩后没有变小时返回原值
+     */
+    public byte[] compress(byte[] bytes) {
+        if (!enabled || bytes == null || bytes.length < threshold) {
+            return bytes;
+        }
+        long start = System.nanoTime();
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] out = new byte[HEADER_LENGTH + bytes.length];
+        int length = HEADER_LENGTH;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        compressNanos.add(System.nanoTime() - start);
+        if (!deflater.finished() || length >= bytes.length) {
+            skipped.increment();
+            return bytes;
+        }
+        out[0] = HEADER;
+        out[1] = (byte) (bytes.length >>> 24);
+        out[2] = (byte) (bytes.length >>> 16);
+        out[3] = (byte) (bytes.length >>> 8);
+        out[4] = (byte) bytes.length;
+        compressed.increment();
+        rawBytes.add(bytes.length);
+        compressedBytes.add(length);
+        byte[] result = new byte[length];
+        System.arraycopy(out, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * 解压，不是压缩格式的值原样返回（不受开关影响，关闭压缩后旧值仍然可读）
+     */
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_LENGTH || bytes[0] != HEADER) {
+            return bytes;
+        }
+        long start = System.nanoTime();
+        int rawLength = (bytes[1] & 0xFF) << 24 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 8 | (bytes[4] & 0xFF);
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        byte[] out = new byte[rawLength];
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(out, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawLength) {
+                throw new IllegalStateException("缓存值解压长度不一致，期望" + rawLength + "，实际" + length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存值解压失败", e);
+        }
+        decompressed.increment();
+        decompressNanos.add(System.nanoTime() - start);
+        return out;
+    }
+
+    /**
+     * 压缩统计
+     */
+    public Map<String, Object> getStats() {
+        long raw = rawBytes.sum();
+        long packed = compressedBytes.sum();
+        long compressCount = compressed.sum() + skipped.sum();
+        long decompressCount = decompressed.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("thresholdBytes", threshold);
+        stats.put("compressed", compressed.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("decompressed", decompressCount);
+        stats.put("rawBytes", raw);
+        stats.put("compressedBytes", packed);
+        stats.put("ratio", raw > 0 ? (double) packed / raw : 1.0);
+        stats.put("compressMillis", compressNanos.sum() / 1_000_000.0);
+        stats.put("decompressMillis", decompressNanos.sum() / 1_000_000.0);
+        stats.put("avgCompressMicros", compressCount > 0 ? compressNanos.sum() / 1000.0 / compressCount : 0);
+        stats.put("avgDecompressMicros", decompressCount > 0 ? decompressNanos.sum() / 1000.0 / decompressCount : 0);
+        return stats;
+    }
+}
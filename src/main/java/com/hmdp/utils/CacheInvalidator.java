@@ -0,0 +1,120 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存失效
+ * <p>
+ * 在事务中调用时先收集受影响的key，事务提交后一次性批量删除（回滚则不删除），
+ * 避免提交前删除缓存、其他线程读到旧数据又写回缓存。
+ * 删除后延迟一段时间再删除一次（延迟双删），清掉提交前后并发读回填的旧值。
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 延迟双删的延迟时间，0表示不做第二次删除
+     */
+    @Value("${hmdp.cache.invalidate.delay-millis:500}")
+    private long delayMillis;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidate");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public void invalidate(String... keys) {
+        invalidate(Arrays.asList(keys));
+    }
+
+    /**
+     * 使缓存失效，有事务时在提交后执行
+     *
+     * @param keys 受影响的key
+     */
+    @SuppressWarnings("unchecked")
+    public void invalidate(Collection<String> keys) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 没有事务，直接删除
+            deleteNow(new LinkedHashSet<>(keys));
+            return;
+        }
+        Set<String> pending = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    Set<String> collected = (Set<String>) TransactionSynchronizationManager.unbindResource(CacheInvalidator.this);
+                    if (status == STATUS_COMMITTED) {
+                        deleteNow(collected);
+                    }
+                }
+            });
+        }
+        pending.addAll(keys);
+    }
+
+    /**
+     * 有事务时在提交后执行（回滚则不执行），没有事务时立即执行；用于删除缓存之外的同步，如布隆过滤器、索引、快照
+     *
+     * @param task 要执行的操作
+     */
+    public void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+
+    private void deleteNow(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            cacheClient.delete(keys);
+        } catch (Exception e) {
+            log.error("删除缓存失败，keys：{}", keys, e);
+        }
+        if (delayMillis > 0) {
+            scheduler.schedule(() -> {
+                try {
+                    cacheClient.delete(keys);
+                } catch (Exception e) {
+                    log.error("延迟删除缓存失败，keys：{}", keys, e);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+}
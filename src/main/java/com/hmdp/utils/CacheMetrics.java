@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存指标，按key前缀统计各类事件次数和读写耗时直方图
+ * <p>
+ * 只使用LongAdder累加，没有锁，可以在生产环境常开。以Prometheus文本格式输出供监控抓取。
+ */
+@Component
+public class CacheMetrics {
+
+    public enum Event {
+        /**
+         * 命中redis
+         */
+        HIT,
+        /**
+         * 命中进程内缓存
+         */
+        LOCAL_HIT,
+        /**
+         * 未命中
+         */
+        MISS,
+        /**
+         * 命中缓存的空值
+         */
+        NULL_HIT,
+        /**
+         * 被布隆过滤器拦截
+         */
+        BLOOM_REJECT,
+        /**
+         * 返回已逻辑过期的旧数据
+         */
+        STALE,
+        /**
+         * 查询数据库重建缓存
+         */
+        REBUILD,
+        /**
+         * 没有抢到重建锁
+         */
+        LOCK_CONTENDED
+    }
+
+    public enum Op {
+        READ, WRITE
+    }
+
+    /**
+     * 直方图桶上限（微秒）
+     */
+    private static final long[] BUCKETS_MICROS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 1000000};
+
+    private final Map<String, PrefixMetrics> metrics = new ConcurrentHashMap<>();
+
+    public void count(String prefix, Event event) {
+        of(prefix).events[event.ordinal()].increment();
+    }
+
+    /**
+     * 记录一次读写耗时
+     *
+     * @param prefix    key前缀
+     * @param op        读或写
+     * @param startNano 开始时间（System.nanoTime）
+     */
+    public void record(String prefix, Op op, long startNano) {
+        of(prefix).latency[op.ordinal()].record((System.nanoTime() - startNano) / 1000);
+    }
+
+    private PrefixMetrics of(String prefix) {
+        PrefixMetrics m = metrics.get(prefix);
+        return m != null ? m : metrics.computeIfAbsent(prefix, k -> new PrefixMetrics());
+    }
+
+    /**
+     * Prometheus文本格式
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# TYPE hmdp_cache_events_total counter\n");
+        metrics.forEach((prefix, m) -> {
+            for (Event event : Event.values()) {
+                sb.append("hmdp_cache_events_total{prefix=\"").append(prefix)
+                        .append("\",event=\"").append(event.name().toLowerCase()).append("\"} ")
+                        .append(m.events[event.ordinal()].sum()).append('\n');
+            }
+        });
+        sb.append("# TYPE hmdp_cache_latency_seconds histogram\n");
+        metrics.forEach((prefix, m) -> {
+            for (Op op : Op.values()) {
+                Histogram h = m.latency[op.ordinal()];
+                String labels = "prefix=\"" + prefix + "\",op=\"" + op.name().toLowerCase() + "\"";
+                long cumulative = 0;
+                for (int i = 0; i < BUCKETS_MICROS.length; i++) {
+                    cumulative += h.buckets[i].sum();
+                    sb.append("hmdp_cache_latency_seconds_bucket{").append(labels)
+                            .append(",le=\"").append(BUCKETS_MICROS[i] / 1e6).append("\"} ").append(cumulative).append('\n');
+                }
+                cumulative += h.buckets[BUCKETS_MICROS.length].sum();
+                sb.append("hmdp_cache_latency_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+                sb.append("hmdp_cache_latency_seconds_sum{").append(labels).append("} ").append(h.sumMicros.sum() / 1e6).append('\n');
+                sb.append("hmdp_cache_latency_seconds_count{").append(labels).append("} ").append(cumulative).append('\n');
+            }
+        });
+        return sb.toString();
+    }
+
+    private static class PrefixMetrics {
+        final LongAdder[] events = new LongAdder[Event.values().length];
+        final Histogram[] latency = {new Histogram(), new Histogram()};
+
+        PrefixMetrics() {
+            for (int i = 0; i < events.length; i++) {
+                events[i] = new LongAdder();
+            }
+        }
+    }
+
+    private static class Histogram {
+        final LongAdder[] buckets = new LongAdder[BUCKETS_MICROS.length + 1];
+        final LongAdder sumMicros = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long micros) {
+            int i = 0;
+            while (i < BUCKETS_MICROS.length && micros > BUCKETS_MICROS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumMicros.add(micros);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池（全局共享）
+ * <p>
+ * 有界队列；同一个key已有重建任务在排队或执行时不再提交；队列满时拒绝，由调用方继续返回旧数据。
+ * 记录队列长度、重建耗时和失败次数。
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 已提交未完成的key
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder totalMillis = new LongAdder();
+    private final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+
+    public CacheRebuildExecutor(@Value("${hmdp.cache.rebuild.threads:10}") int threads,
+                                @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity) {
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param key  缓存key，用于去重
+     * @param task 重建逻辑
+     * @return 是否提交成功，false表示该key已在重建或队列已满，调用方应返回旧数据
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, task));
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，继续返回旧数据，key：{}", key);
+            return false;
+        }
+    }
+
+    /**
+     * 该key是否已有重建任务在排队或执行
+     */
+    public boolean isPending(String key) {
+        return pendingKeys.contains(key);
+    }
+
+    private void run(String key, Runnable task) {
+        long start = System.currentTimeMillis();
+        try {
+            task.run();
+            completed.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.error("缓存重建失败，key：{}", key, e);
+        } finally {
+            long cost = System.currentTimeMillis() - start;
+            totalMillis.add(cost);
+            maxMillis.accumulate(cost);
+            pendingKeys.remove(key);
+        }
+    }
+
+    /**
+     * 线程池运行状态
+     */
+    public Map<String, Object> getStats() {
+        long done = completed.sum() + failed.sum();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("pendingKeys", pendingKeys.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("avgMillis", done > 0 ? (double) totalMillis.sum() / done : 0);
+        stats.put("maxMillis", maxMillis.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存查询策略，可以按key前缀选择
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存空值解决缓存穿透
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁解决缓存击穿
+     */
+    MUTEX,
+    /**
+     * 逻辑过期解决缓存击穿，key不存在时同步加载一次，提前预热可以避免冷启动时集中查询数据库
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 概率提前刷新（XFetch）：根据重建耗时和剩余时间随机提前刷新，不需要锁
+     */
+    XFETCH
+}
@@ -0,0 +1,357 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内经纬度网格索引
+ * <p>
+ * 按固定大小（度）把坐标划分到网格，每个格子用基本类型数组存id和坐标。查询从所在格子向外一圈一圈扫描，
+ * 距离用等距圆柱投影近似计算（几十公里内误差远小于1%），扫描过程中不创建对象，只有返回结果时分配。
+ * 读多写少，用读写锁保护，支持单条增删改。
+ */
+public class GeoGridIndex {
+
+    /**
+     * 每度纬度对应的米数
+     */
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    private final double cellDegrees;
+
+    /**
+     * 格子key -> 格子
+     */
+    private final LongCellMap cells = new LongCellMap();
+
+    /**
+     * id -> 所在格子key，用于更新和删除
+     */
+    private final Map<Long, Long> cellOfId = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param cellDegrees 格子大小（度），0.01约为1.1公里
+     */
+    public GeoGridIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * 新增或移动一个点
+     *
+     * @param x 经度
+     * @param y 纬度
+     */
+    public void put(long id, double x, double y) {
+        long cellKey = cellKey(cellRow(y), cellCol(x));
+        lock.writeLock().lock();
+        try {
+            Long old = cellOfId.put(id, cellKey);
+            if (old != null) {
+                cells.get(old).remove(id);
+            }
+            Cell cell = cells.get(cellKey);
+            if (cell == null) {
+                cell = new Cell();
+                cells.put(cellKey, cell);
+            }
+            cell.add(id, x, y);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Long old = cellOfId.remove(id);
+            if (old != null) {
+                cells.get(old).remove(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return cellOfId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查询半径内最近的k个点
+     *
+     * @param x            经度
+     * @param y            纬度
+     * @param k            最多返回的数量
+     * @param radiusMeters 搜索半径（米）
+     * @return 按距离由近到远排序
+     */
+    public List<Neighbor> nearest(double x, double y, int k, double radiusMeters) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        double cos = Math.cos(Math.toRadians(y));
+        double metersPerLon = METERS_PER_DEGREE * cos;
+        // 一个格子在经度、纬度方向上较短的一边（米），用于判断外圈的最近可能距离
+        double cellMeters = cellDegrees * Math.min(METERS_PER_DEGREE, metersPerLon);
+        double radius2 = radiusMeters * radiusMeters;
+        int row0 = cellRow(y);
+        int col0 = cellCol(x);
+        int maxRing = (int) Math.min(Integer.MAX_VALUE / 4, Math.ceil(radiusMeters / cellMeters) + 1);
+        TopK top = new TopK(k);
+        lock.readLock().lock();
+        try {
+            int remaining = cellOfId.size();
+            for (int ring = 0; ring <= maxRing && remaining > 0; ring++) {
+                for (int dr = -ring; dr <= ring; dr++) {
+                    // 第一行和最后一行扫描整行，中间行只扫描两端
+                    int step = (dr == -ring || dr == ring) ? 1 : Math.max(1, 2 * ring);
+                    for (int dc = -ring; dc <= ring; dc += step) {
+                        Cell cell = cells.get(cellKey(row0 + dr, col0 + dc));
+                        if (cell == null || cell.size == 0) {
+                            continue;
+                        }
+                        remaining -= cell.size;
+                        for (int i = 0; i < cell.size; i++) {
+                            double dx = (cell.xs[i] - x) * metersPerLon;
+                            double dy = (cell.ys[i] - y) * METERS_PER_DEGREE;
+                            double d2 = dx * dx + dy * dy;
+                            if (d2 <= radius2) {
+                                top.offer(cell.ids[i], d2);
+                            }
+                        }
+                    }
+                }
+                // 已有k个且第k个比下一圈可能的最近距离还近，不用再扫描
+                double nextRingMin = ring * cellMeters;
+                if (top.isFull() && top.maxDistance2() <= nextRingMin * nextRingMin) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return top.sorted();
+    }
+
+    private int cellRow(double y) {
+        return (int) Math.floor(y / cellDegrees);
+    }
+
+    private int cellCol(double x) {
+        return (int) Math.floor(x / cellDegrees);
+    }
+
+    private static long cellKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 查询结果
+     */
+    public static class Neighbor {
+
+        private final long id;
+
+        /**
+         * 距离（米）
+         */
+        private final double distance;
+
+        Neighbor(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    private static class Cell {
+        long[] ids = new long[4];
+        double[] xs = new double[4];
+        double[] ys = new double[4];
+        int size;
+
+        void add(long id, double x, double y) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                xs = Arrays.copyOf(xs, size * 2);
+                ys = Arrays.copyOf(ys, size * 2);
+            }
+            ids[size] = id;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        void remove(long id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    // 用最后一个覆盖
+                    size--;
+                    ids[i] = ids[size];
+                    xs[i] = xs[size];
+                    ys[i] = ys[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 最近的k个：按距离平方的大顶堆
+     */
+    private static class TopK {
+        private final int k;
+        private long[] ids;
+        private double[] d2;
+        private int size;
+
+        TopK(int k) {
+            this.k = k;
+            int capacity = Math.min(k, 64);
+            this.ids = new long[capacity];
+            this.d2 = new double[capacity];
+        }
+
+        boolean isFull() {
+            return size >= k;
+        }
+
+        double maxDistance2() {
+            return d2[0];
+        }
+
+        void offer(long id, double distance2) {
+            if (size < k) {
+                if (size == ids.length) {
+                    int capacity = (int) Math.min(k, ids.length * 2L);
+                    ids = Arrays.copyOf(ids, capacity);
+                    d2 = Arrays.copyOf(d2, capacity);
+                }
+                int i = size++;
+                // 上浮
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (d2[parent] >= distance2) {
+                        break;
+                    }
+                    ids[i] = ids[parent];
+                    d2[i] = d2[parent];
+                    i = parent;
+                }
+                ids[i] = id;
+                d2[i] = distance2;
+                return;
+            }
+            if (distance2 >= d2[0]) {
+                return;
+            }
+            // 替换堆顶后下沉
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && d2[child + 1] > d2[child]) {
+                    child++;
+                }
+                if (d2[child] <= distance2) {
+                    break;
+                }
+                ids[i] = ids[child];
+                d2[i] = d2[child];
+                i = child;
+            }
+            ids[i] = id;
+            d2[i] = distance2;
+        }
+
+        List<Neighbor> sorted() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(d2[a], d2[b]));
+            List<Neighbor> result = new ArrayList<>(size);
+            for (Integer i : order) {
+                result.add(new Neighbor(ids[i], Math.sqrt(d2[i])));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * long -> 格子的开放寻址哈希表，查询时不装箱
+     */
+    private static class LongCellMap {
+        private long[] keys = new long[64];
+        private Cell[] values = new Cell[64];
+        private int size;
+
+        Cell get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                Cell value = values[i];
+                if (value == null) {
+                    return null;
+                }
+                if (keys[i] == key) {
+                    return value;
+                }
+            }
+        }
+
+        void put(long key, Cell value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Cell[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Cell[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
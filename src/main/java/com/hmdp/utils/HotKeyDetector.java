@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.HashUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 热点key探测
+ * <p>
+ * 按采样率记录key的访问，用count-min sketch统计当前窗口和上一个窗口的次数，
+ * 按滑动窗口估算每秒访问量，超过阈值的key记为热点key。
+ */
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+
+    private static final int WIDTH = 1 << 12;
+
+    private final boolean enabled;
+
+    /**
+     * 热点阈值（次/秒）
+     */
+    private final double threshold;
+
+    private final long windowMillis;
+
+    private final double sampleRate;
+
+    /**
+     * 最多记录的热点key数量
+     */
+    private final int maxHotKeys;
+
+    private volatile CountMinSketch current = new CountMinSketch();
+
+    private volatile CountMinSketch previous = new CountMinSketch();
+
+    private volatile long windowStart = System.currentTimeMillis();
+
+    /**
+     * 热点key -> 估算的每秒访问量
+     */
+    private final Map<String, Double> hotKeys = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(@Value("${hmdp.cache.hot-key.enabled:false}") boolean enabled,
+                          @Value("${hmdp.cache.hot-key.threshold:100}") double threshold,
+                          @Value("${hmdp.cache.hot-key.window-seconds:10}") long windowSeconds,
+                          @Value("${hmdp.cache.hot-key.sample-rate:1.0}") double sampleRate,
+                          @Value("${hmdp.cache.hot-key.max-keys:100}") int maxHotKeys) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+        this.sampleRate = sampleRate;
+        this.maxHotKeys = maxHotKeys;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key key
+     * @return 是否为热点key
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return hotKeys.containsKey(key);
+        }
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= windowMillis) {
+            rotate(now);
+        }
+        current.add(key, Math.round(1 / sampleRate));
+        double rate = rate(key, now);
+        if (rate >= threshold) {
+            if (hotKeys.size() < maxHotKeys || hotKeys.containsKey(key)) {
+                hotKeys.put(key, rate);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isHot(String key) {
+        return enabled && hotKeys.containsKey(key);
+    }
+
+    /**
+     * 访问量最高的n个热点key
+     *
+     * @return key -> 每秒访问量，按访问量倒序
+     */
+    public Map<String, Double> topKeys(int n) {
+        Map<String, Double> top = new LinkedHashMap<>();
+        hotKeys.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                .limit(n)
+                .forEach(e -> top.put(e.getKey(), e.getValue()));
+        return top;
+    }
+
+    /**
+     * 滑动窗口估算：当前窗口次数 + 上一个窗口按剩余比例折算的次数
+     */
+    private double rate(String key, long now) {
+        double elapsed = Math.min(1.0, (double) (now - windowStart) / windowMillis);
+        double count = current.estimate(key) + previous.estimate(key) * (1 - elapsed);
+        return count * 1000 / windowMillis;
+    }
+
+    private synchronized void rotate(long now) {
+        if (now - windowStart < windowMillis) {
+            return;
+        }
+        // 超过两个窗口没有访问，上一个窗口也清空
+        previous = now - windowStart >= 2 * windowMillis ? new CountMinSketch() : current;
+        current = new CountMinSketch();
+        windowStart = now;
+        // 重新估算热点key，掉到阈值以下的移除
+        hotKeys.replaceAll((key, rate) -> rate(key, now));
+        hotKeys.values().removeIf(rate -> rate < threshold);
+    }
+
+    /**
+     * 每行的下标由64位murmur哈希双重哈希得到：h(i) = h1 + i * h2，各行相互独立，
+     * 不会像同一个hashCode那样在一行冲突的key在所有行都冲突
+     */
+    private static class CountMinSketch {
+
+        private final AtomicLongArray table = new AtomicLongArray(DEPTH * WIDTH);
+
+        void add(String key, long count) {
+            long hash = hash(key);
+            for (int i = 0; i < DEPTH; i++) {
+                table.addAndGet(i * WIDTH + index(hash, i), count);
+            }
+        }
+
+        long estimate(String key) {
+            long hash = hash(key);
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, table.get(i * WIDTH + index(hash, i)));
+            }
+            return min;
+        }
+
+        private static long hash(String key) {
+            return HashUtil.murmur64(key.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static int index(long hash, int row) {
+            int h1 = (int) hash;
+            // h2取奇数，与2的幂次的WIDTH互质，各行下标不会重复
+            int h2 = (int) (hash >>> 32) | 1;
+            return (h1 + row * h2) & (WIDTH - 1);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * JSON编解码器（默认），与原先JSONUtil写入的字符串格式兼容
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final JsonCacheCodec INSTANCE = new JsonCacheCodec();
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        return encodeWithExpire(value, expireMillis, 0L);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis, long recomputeMillis) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+        if (recomputeMillis > 0) {
+            redisData.setRecomputeMillis(recomputeMillis);
+        }
+        return encode(redisData);
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        // 只解析一次json，再从JSONObject转换data
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        RedisData redisData = new RedisData();
+        Object expireTime = json.get("expireTime");
+        redisData.setExpireTime(expireTime instanceof Number
+                ? LocalDateTime.ofInstant(Instant.ofEpochMilli(((Number) expireTime).longValue()), ZoneId.systemDefault())
+                : json.get("expireTime", LocalDateTime.class));
+        redisData.setRecomputeMillis(json.getLong("recomputeMillis"));
+        JSONObject data = json.getJSONObject("data");
+        redisData.setData(data == null ? null : data.toBean(type));
+        return redisData;
+    }
+}
@@ -0,0 +1,299 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内n-gram倒排索引，用于名称、地址的包含查询
+ * <p>
+ * 文本统一转小写、去掉空白后按单字和相邻两字（bigram）建倒排表，倒排表为有序的long数组。
+ * 查询时取查询词的全部bigram（单字查询取单字），从最短的倒排表出发，在其余倒排表中二分查找求交集，
+ * 再用原文做一次包含判断去掉误命中。扫描量取决于最短倒排表的长度，与店铺总数基本无关；
+ * 命中结果只用大小为 offset+limit 的堆保留当前页需要的部分，不对全部命中排序，翻页越深堆越大。
+ * 读多写少，用读写锁保护；按id递增写入时（启动加载）追加到倒排数组末尾，不需要移动元素。
+ */
+public class NgramIndex {
+
+    /**
+     * 名称命中的基础分
+     */
+    private static final int NAME_SCORE = 100;
+
+    /**
+     * 名称以查询词开头的附加分
+     */
+    private static final int NAME_PREFIX_SCORE = 50;
+
+    /**
+     * 地址命中的基础分
+     */
+    private static final int ADDRESS_SCORE = 10;
+
+    /**
+     * 分数高的在前，同分时名称短的在前，再按id
+     */
+    private static final Comparator<Hit> HIT_ORDER = (a, b) -> a.score != b.score ? Integer.compare(b.score, a.score)
+            : a.nameLength != b.nameLength ? Integer.compare(a.nameLength, b.nameLength)
+            : Long.compare(a.id, b.id);
+
+    /**
+     * gram -> 有序id数组
+     */
+    private final Map<String, Posting> postings = new HashMap<>();
+
+    /**
+     * id -> 规范化后的名称和地址，用于删除和结果校验
+     */
+    private final Map<Long, String[]> documents = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 新增或更新一条
+     */
+    public void put(long id, String name, String address) {
+        String[] doc = {normalize(name), normalize(address)};
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            documents.put(id, doc);
+            for (String gram : grams(doc)) {
+                postings.computeIfAbsent(gram, k -> new Posting()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查询名称或地址包含关键字的id，按相关度排序后分页
+     * <p>
+     * 相关度：名称命中 &gt; 名称前缀命中加分 &gt; 地址命中；同分时名称越短越靠前，再按id
+     *
+     * @param keyword 关键字
+     * @param offset  跳过的条数
+     * @param limit   返回的条数
+     * @return id列表
+     */
+    public List<Long> search(String keyword, int offset, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        offset = Math.max(0, offset);
+        List<Hit> hits = collect(keyword, null, (int) Math.min(Integer.MAX_VALUE, (long) offset + limit));
+        List<Long> result = new ArrayList<>(Math.min(limit, Math.max(0, hits.size() - offset)));
+        for (int i = offset; i < hits.size() && result.size() < limit; i++) {
+            result.add(hits.get(i).id);
+        }
+        return result;
+    }
+
+    /**
+     * 按相关度排序后，返回排在after之后的limit条（滚动分页）
+     *
+     * @param keyword 关键字
+     * @param after   上一页最后一条，第一页为null
+     * @param limit   返回的条数
+     */
+    public List<Hit> searchAfter(String keyword, Hit after, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        return collect(keyword, after, limit);
+    }
+
+    /**
+     * 排在after之后（after为null时从头开始）相关度最高的k条命中结果，按相关度排序
+     */
+    private List<Hit> collect(String keyword, Hit after, int k) {
+        String query = normalize(keyword);
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<String> queryGrams = new LinkedHashSet<>();
+        if (query.length() == 1) {
+            queryGrams.add(query);
+        } else {
+            for (int i = 0; i + 1 < query.length(); i++) {
+                queryGrams.add(query.substring(i, i + 2));
+            }
+        }
+        List<Posting> lists = new ArrayList<>(queryGrams.size());
+        // 按相关度的大顶堆，堆顶是已保留的结果中最靠后的一条
+        PriorityQueue<Hit> top = new PriorityQueue<>(Math.min(k, 64), HIT_ORDER.reversed());
+        lock.readLock().lock();
+        try {
+            for (String gram : queryGrams) {
+                Posting posting = postings.get(gram);
+                if (posting == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(posting);
+            }
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            Posting shortest = lists.get(0);
+            outer:
+            for (int j = 0; j < shortest.size; j++) {
+                long id = shortest.ids[j];
+                for (int i = 1; i < lists.size(); i++) {
+                    if (!lists.get(i).contains(id)) {
+                        continue outer;
+                    }
+                }
+                String[] doc = documents.get(id);
+                int score = 0;
+                if (doc[0].contains(query)) {
+                    score += NAME_SCORE;
+                    if (doc[0].startsWith(query)) {
+                        score += NAME_PREFIX_SCORE;
+                    }
+                } else if (doc[1].contains(query)) {
+                    score += ADDRESS_SCORE;
+                }
+                if (score == 0) {
+                    continue;
+                }
+                Hit hit = new Hit(id, score, doc[0].length());
+                if (after != null && HIT_ORDER.compare(hit, after) <= 0) {
+                    continue;
+                }
+                if (top.size() < k) {
+                    top.add(hit);
+                } else if (HIT_ORDER.compare(hit, top.peek()) < 0) {
+                    top.poll();
+                    top.add(hit);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Hit> hits = new ArrayList<>(top);
+        hits.sort(HIT_ORDER);
+        return hits;
+    }
+
+    private void removeLocked(long id) {
+        String[] old = documents.remove(id);
+        if (old == null) {
+            return;
+        }
+        for (String gram : grams(old)) {
+            Posting posting = postings.get(gram);
+            if (posting != null && posting.remove(id) && posting.size == 0) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * 文本的全部单字和bigram
+     */
+    private static Set<String> grams(String[] texts) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (String text : texts) {
+            for (int i = 0; i < text.length(); i++) {
+                grams.add(text.substring(i, i + 1));
+                if (i + 1 < text.length()) {
+                    grams.add(text.substring(i, i + 2));
+                }
+            }
+        }
+        return grams;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : StrUtil.cleanBlank(text).toLowerCase();
+    }
+
+    /**
+     * 有序id数组
+     */
+    private static class Posting {
+        long[] ids = new long[4];
+        int size;
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        void add(long id) {
+            int pos = size == 0 || ids[size - 1] < id ? -(size + 1) : Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        boolean remove(long id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+    }
+
+    /**
+     * 命中结果，分数和名称长度同时作为滚动分页的定位字段
+     */
+    public static class Hit {
+        private final long id;
+        private final int score;
+        private final int nameLength;
+
+        public Hit(long id, int score, int nameLength) {
+            this.id = id;
+            this.score = score;
+            this.nameLength = nameLength;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public int getNameLength() {
+            return nameLength;
+        }
+    }
+}
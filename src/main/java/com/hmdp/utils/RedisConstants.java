@@ -11,14 +11,32 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String SHOP_TYPE = "shop:type";
+    public static final String SHOP_TYPE_CHANGED_CHANNEL = "shop-type:changed";
+    public static final String CACHE_SHOP_LIST_KEY = "cache:shop-list:";
+    public static final String SHOP_TYPE_RANK_KEY = "shop:type:rank:";
+    public static final String SHOP_RANK_REBUILDING_KEY = "shop:rank:rebuilding";
+    public static final String SHOP_RANK_CHANGED_KEY = "shop:rank:changed";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_INVALIDATE_SEPARATOR = "|";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+    public static final String CACHE_BLOOM_ADD_CHANNEL = "cache:bloom-add";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String ORDER = "order:";
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM = "stream:orders";
+    public static final String SECKILL_ORDER_GROUP = "order-persister";
+    public static final String SECKILL_ORDER_DEAD_STREAM = "stream:orders:dead";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_CHANGED_CHANNEL = "shop:changed";
     public static final String USER_SIGN_KEY = "sign:";
 }
@@ -0,0 +1,170 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * 响应体编解码器，缓存中直接存放接口要返回的Result序列化结果
+ * <p>
+ * 格式：魔数(1) + 标志(1) + [逻辑过期时间epoch毫秒(8)] + [重建耗时毫秒(4)] + [Result.ok(data)的JSON]。
+ * 响应体用Spring MVC同一个ObjectMapper序列化，新鲜命中时由 {@link #freshBody} 截出后原样写给客户端，
+ * 不再反序列化、包装、再序列化；过期、空值或其他格式时才解析成对象。
+ * 首字节不是魔数时交给原来的编解码器，方便平滑切换。
+ */
+public class ResponseBodyCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xB7;
+
+    private static final int FLAG_EXPIRE = 1;
+    private static final int FLAG_NULL_DATA = 1 << 1;
+    private static final int FLAG_RECOMPUTE = 1 << 2;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 切换前的编解码器，用于读取旧格式
+     */
+    private final CacheCodec legacy;
+
+    public ResponseBodyCodec(ObjectMapper objectMapper, CacheCodec legacy) {
+        this.objectMapper = objectMapper;
+        this.legacy = legacy;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, false, 0L, 0L);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return legacy.decode(bytes, type);
+        }
+        return type.cast(read(bytes, type).getData());
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        return write(value, true, expireMillis, 0L);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis, long recomputeMillis) {
+        return write(value, true, expireMillis, recomputeMillis);
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return legacy.decodeWithExpire(bytes, type);
+        }
+        return read(bytes, type);
+    }
+
+    /**
+     * 缓存值是本格式、有数据且逻辑未过期时，返回其中的响应体，否则返回null
+     *
+     * @param bytes 缓存值（已解压）
+     * @param now   当前时间（epoch毫秒）
+     */
+    public static byte[] freshBody(byte[] bytes, long now) {
+        if (bytes == null || bytes.length < 2 || bytes[0] != MAGIC) {
+            return null;
+        }
+        int flags = bytes[1];
+        if ((flags & FLAG_NULL_DATA) != 0) {
+            return null;
+        }
+        int offset = 2;
+        if ((flags & FLAG_EXPIRE) != 0) {
+            if (ByteBuffer.wrap(bytes, offset, 8).getLong() <= now) {
+                return null;
+            }
+            offset += 8;
+        }
+        if ((flags & FLAG_RECOMPUTE) != 0) {
+            offset += 4;
+        }
+        return Arrays.copyOfRange(bytes, offset, bytes.length);
+    }
+
+    /**
+     * 缓存值中的逻辑过期时间（epoch毫秒），没有时返回Long.MAX_VALUE
+     *
+     * @param bytes 本格式的缓存值（已解压）
+     */
+    public static long expireMillis(byte[] bytes) {
+        if ((bytes[1] & FLAG_EXPIRE) == 0) {
+            return Long.MAX_VALUE;
+        }
+        return ByteBuffer.wrap(bytes, 2, 8).getLong();
+    }
+
+    /**
+     * 缓存值中记录的重建耗时（毫秒），没有时返回0
+     *
+     * @param bytes 本格式的缓存值（已解压）
+     */
+    public static long recomputeMillis(byte[] bytes) {
+        if ((bytes[1] & FLAG_RECOMPUTE) == 0) {
+            return 0;
+        }
+        int offset = (bytes[1] & FLAG_EXPIRE) != 0 ? 10 : 2;
+        return ByteBuffer.wrap(bytes, offset, 4).getInt();
+    }
+
+    private byte[] write(Object value, boolean withExpire, long expireMillis, long recomputeMillis) {
+        byte[] body;
+        try {
+            body = value == null ? new byte[0] : objectMapper.writeValueAsBytes(Result.ok(value));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int flags = (withExpire ? FLAG_EXPIRE : 0) | (value == null ? FLAG_NULL_DATA : 0)
+                | (recomputeMillis > 0 ? FLAG_RECOMPUTE : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + (withExpire ? 8 : 0) + (recomputeMillis > 0 ? 4 : 0) + body.length);
+        buffer.put(MAGIC).put((byte) flags);
+        if (withExpire) {
+            buffer.putLong(expireMillis);
+        }
+        if (recomputeMillis > 0) {
+            buffer.putInt((int) Math.min(Integer.MAX_VALUE, recomputeMillis));
+        }
+        buffer.put(body);
+        return buffer.array();
+    }
+
+    private <R> RedisData read(byte[] bytes, Class<R> type) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.get();
+        int flags = buffer.get();
+        RedisData redisData = new RedisData();
+        if ((flags & FLAG_EXPIRE) != 0) {
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong()), ZONE));
+        }
+        if ((flags & FLAG_RECOMPUTE) != 0) {
+            redisData.setRecomputeMillis((long) buffer.getInt());
+        }
+        if ((flags & FLAG_NULL_DATA) == 0) {
+            try {
+                JsonNode data = objectMapper.readTree(bytes, buffer.position(), buffer.remaining()).get("data");
+                redisData.setData(objectMapper.treeToValue(data, type));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return redisData;
+    }
+}
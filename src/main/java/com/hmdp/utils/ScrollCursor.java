@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 滚动分页游标
+ * <p>
+ * 游标内容为上一页最后一条记录的排序字段，用冒号拼接后做URL安全的Base64编码，对客户端不透明。
+ * 下一页按这些字段定位（WHERE 排序字段 &lt; 上一页最后一条），不使用OFFSET，也不查询总数。
+ */
+public class ScrollCursor {
+
+    private static final String SEPARATOR = ":";
+
+    private ScrollCursor() {
+    }
+
+    /**
+     * 生成游标
+     *
+     * @param values 上一页最后一条记录的排序字段
+     */
+    public static String encode(Object... values) {
+        return Base64.encodeUrlSafe(StrUtil.join(SEPARATOR, values), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 解析游标
+     *
+     * @param cursor 游标，为空表示第一页
+     * @param size   字段个数
+     * @return 排序字段，第一页返回null
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static long[] decode(String cursor, int size) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        List<String> parts;
+        try {
+            parts = StrUtil.split(Base64.decodeStr(cursor, StandardCharsets.UTF_8), SEPARATOR);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("游标格式不正确");
+        }
+        if (parts.size() != size) {
+            throw new IllegalArgumentException("游标格式不正确");
+        }
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            try {
+                values[i] = Long.parseLong(parts.get(i));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("游标格式不正确");
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,187 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 店铺二进制编解码器，按固定字段顺序写入，不写字段名
+ * <p>
+ * 格式：魔数(1) + 版本(1) + 标志(1) + [逻辑过期时间epoch毫秒(8)] + [重建耗时毫秒(4)] + [空值位图(2) + 非空字段]。
+ * 首字节不是魔数时按JSON解码，方便从JSON格式平滑切换。
+ */
+public class ShopBinaryCodec implements CacheCodec {
+
+    public static final ShopBinaryCodec INSTANCE = new ShopBinaryCodec();
+
+    private static final byte MAGIC = (byte) 0xB5;
+    private static final byte VERSION = 1;
+
+    private static final int FLAG_EXPIRE = 1;
+    private static final int FLAG_NULL_DATA = 1 << 1;
+    private static final int FLAG_RECOMPUTE = 1 << 2;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, false, 0L, 0L);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return JsonCacheCodec.INSTANCE.decode(bytes, type);
+        }
+        return type.cast(read(bytes).getData());
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        return write(value, true, expireMillis, 0L);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireMillis, long recomputeMillis) {
+        return write(value, true, expireMillis, recomputeMillis);
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return JsonCacheCodec.INSTANCE.decodeWithExpire(bytes, type);
+        }
+        return read(bytes);
+    }
+
+    private byte[] write(Object value, boolean withExpire, long expireMillis, long recomputeMillis) {
+        if (value != null && !(value instanceof Shop)) {
+            throw new IllegalArgumentException("ShopBinaryCodec只支持Shop类型：" + value.getClass());
+        }
+        Shop shop = (Shop) value;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bos);
+        try {
+            int flags = (withExpire ? FLAG_EXPIRE : 0) | (shop == null ? FLAG_NULL_DATA : 0)
+                    | (recomputeMillis > 0 ? FLAG_RECOMPUTE : 0);
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(flags);
+            if (withExpire) {
+                out.writeLong(expireMillis);
+            }
+            if (recomputeMillis > 0) {
+                out.writeInt((int) Math.min(Integer.MAX_VALUE, recomputeMillis));
+            }
+            if (shop != null) {
+                writeShop(out, shop);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    private void writeShop(DataOutputStream out, Shop shop) throws IOException {
+        Object[] fields = {shop.getId(), shop.getName(), shop.getTypeId(), shop.getImages(), shop.getArea(),
+                shop.getAddress(), shop.getX(), shop.getY(), shop.getAvgPrice(), shop.getSold(), shop.getComments(),
+                shop.getScore(), shop.getOpenHours(), shop.getCreateTime(), shop.getUpdateTime()};
+        int nullBits = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == null) {
+                nullBits |= 1 << i;
+            }
+        }
+        out.writeShort(nullBits);
+        if (shop.getId() != null) out.writeLong(shop.getId());
+        if (shop.getName() != null) writeString(out, shop.getName());
+        if (shop.getTypeId() != null) out.writeLong(shop.getTypeId());
+        if (shop.getImages() != null) writeString(out, shop.getImages());
+        if (shop.getArea() != null) writeString(out, shop.getArea());
+        if (shop.getAddress() != null) writeString(out, shop.getAddress());
+        if (shop.getX() != null) out.writeDouble(shop.getX());
+        if (shop.getY() != null) out.writeDouble(shop.getY());
+        if (shop.getAvgPrice() != null) out.writeLong(shop.getAvgPrice());
+        if (shop.getSold() != null) out.writeInt(shop.getSold());
+        if (shop.getComments() != null) out.writeInt(shop.getComments());
+        if (shop.getScore() != null) out.writeInt(shop.getScore());
+        if (shop.getOpenHours() != null) writeString(out, shop.getOpenHours());
+        if (shop.getCreateTime() != null) out.writeLong(toMillis(shop.getCreateTime()));
+        if (shop.getUpdateTime() != null) out.writeLong(toMillis(shop.getUpdateTime()));
+    }
+
+    private RedisData read(byte[] bytes) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            in.readByte();
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalStateException("不支持的店铺编码版本：" + version);
+            }
+            int flags = in.readByte();
+            RedisData redisData = new RedisData();
+            if ((flags & FLAG_EXPIRE) != 0) {
+                redisData.setExpireTime(toTime(in.readLong()));
+            }
+            if ((flags & FLAG_RECOMPUTE) != 0) {
+                redisData.setRecomputeMillis((long) in.readInt());
+            }
+            if ((flags & FLAG_NULL_DATA) == 0) {
+                redisData.setData(readShop(in));
+            }
+            return redisData;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Shop readShop(DataInputStream in) throws IOException {
+        int nullBits = in.readUnsignedShort();
+        Shop shop = new Shop();
+        if ((nullBits & 1) == 0) shop.setId(in.readLong());
+        if ((nullBits & 1 << 1) == 0) shop.setName(readString(in));
+        if ((nullBits & 1 << 2) == 0) shop.setTypeId(in.readLong());
+        if ((nullBits & 1 << 3) == 0) shop.setImages(readString(in));
+        if ((nullBits & 1 << 4) == 0) shop.setArea(readString(in));
+        if ((nullBits & 1 << 5) == 0) shop.setAddress(readString(in));
+        if ((nullBits & 1 << 6) == 0) shop.setX(in.readDouble());
+        if ((nullBits & 1 << 7) == 0) shop.setY(in.readDouble());
+        if ((nullBits & 1 << 8) == 0) shop.setAvgPrice(in.readLong());
+        if ((nullBits & 1 << 9) == 0) shop.setSold(in.readInt());
+        if ((nullBits & 1 << 10) == 0) shop.setComments(in.readInt());
+        if ((nullBits & 1 << 11) == 0) shop.setScore(in.readInt());
+        if ((nullBits & 1 << 12) == 0) shop.setOpenHours(readString(in));
+        if ((nullBits & 1 << 13) == 0) shop.setCreateTime(toTime(in.readLong()));
+        if ((nullBits & 1 << 14) == 0) shop.setUpdateTime(toTime(in.readLong()));
+        return shop;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZONE);
+    }
+}
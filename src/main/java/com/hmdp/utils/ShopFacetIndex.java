@@ -0,0 +1,381 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 店铺多条件筛选的进程内位图索引
+ * <p>
+ * 每个店铺分配一个连续的序号，每个筛选项（类型、商圈、人均价格区间、评分区间）的每个取值一个压缩位图，
+ * 营业时间按15分钟一个时段，每个时段一个位图，记录该时段开始时正在营业的店铺。
+ * 筛选时对选中的位图求交集；各取值的数量用"除该筛选项外其余条件的交集"与该取值的位图求交集个数得到，
+ * 这样选中某个商圈后，商圈列表里仍能看到其他商圈的数量。
+ * 读多写少，用读写锁保护。
+ */
+public class ShopFacetIndex {
+
+    public static final String TYPE = "typeId";
+    public static final String AREA = "area";
+    public static final String PRICE = "price";
+    public static final String SCORE = "score";
+    public static final String OPEN_NOW = "openNow";
+
+    private static final String[] FACETS = {TYPE, AREA, PRICE, SCORE};
+
+    /**
+     * 人均价格区间的边界（元），左闭右开
+     */
+    private static final long[] PRICE_BOUNDS = {50, 100, 200, 500};
+
+    /**
+     * 取值的展示顺序：以数字开头的（类型、价格区间、星级）按数字大小，其余按字符串
+     */
+    private static final Comparator<String> VALUE_ORDER = Comparator
+            .comparingLong((String value) -> NumberUtil.isLong(StrUtil.subBefore(value, "-", false))
+                    ? Long.parseLong(StrUtil.subBefore(value, "-", false)) : Long.MAX_VALUE)
+            .thenComparing(Comparator.naturalOrder());
+
+    private static final int SLOT_MINUTES = 15;
+
+    private static final int SLOTS = 24 * 60 / SLOT_MINUTES;
+
+    /**
+     * 筛选项 -> 取值 -> 店铺序号位图
+     */
+    private final Map<String, Map<String, CompressedBitmap>> facets = new HashMap<>();
+
+    /**
+     * 营业时段 -> 店铺序号位图
+     */
+    private final CompressedBitmap[] openSlots = new CompressedBitmap[SLOTS];
+
+    /**
+     * 全部店铺
+     */
+    private final CompressedBitmap all = new CompressedBitmap();
+
+    /**
+     * 店铺id -> 序号，删除后序号保留，重新加入时复用
+     */
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+
+    /**
+     * 序号 -> 店铺id
+     */
+    private long[] ids = new long[16];
+
+    /**
+     * 序号 -> 各筛选项的取值，用于删除
+     */
+    private String[][] values = new String[16][];
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ShopFacetIndex() {
+        for (String facet : FACETS) {
+            facets.put(facet, new HashMap<>());
+        }
+        for (int i = 0; i < SLOTS; i++) {
+            openSlots[i] = new CompressedBitmap();
+        }
+    }
+
+    /**
+     * 新增或更新一个店铺
+     */
+    public void put(Shop shop) {
+        String[] doc = {
+                shop.getTypeId() == null ? null : shop.getTypeId().toString(),
+                StrUtil.emptyToNull(StrUtil.trim(shop.getArea())),
+                priceBucket(shop.getAvgPrice()),
+                scoreBucket(shop.getScore())
+        };
+        boolean[] open = openSlots(shop.getOpenHours());
+        lock.writeLock().lock();
+        try {
+            int ordinal = ordinals.computeIfAbsent(shop.getId(), this::nextOrdinal);
+            removeLocked(ordinal);
+            values[ordinal] = doc;
+            all.add(ordinal);
+            for (int i = 0; i < FACETS.length; i++) {
+                if (doc[i] != null) {
+                    facets.get(FACETS[i]).computeIfAbsent(doc[i], k -> new CompressedBitmap()).add(ordinal);
+                }
+            }
+            for (int i = 0; i < SLOTS; i++) {
+                if (open[i]) {
+                    openSlots[i].add(ordinal);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            if (ordinal != null) {
+                removeLocked(ordinal);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return all.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 占用的内存（字节，近似值，只算位图）
+     */
+    public long sizeInBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = all.sizeInBytes();
+            for (Map<String, CompressedBitmap> bitmaps : facets.values()) {
+                for (CompressedBitmap bitmap : bitmaps.values()) {
+                    bytes += bitmap.sizeInBytes();
+                }
+            }
+            for (CompressedBitmap bitmap : openSlots) {
+                bytes += bitmap.sizeInBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按条件筛选，结果按加入索引的先后（启动加载时即id）排序后分页，同时返回各筛选项取值的数量
+     *
+     * @param filters 筛选项 -> 取值，只支持 typeId / area / price / score
+     * @param openNow 是否只要营业中的店铺
+     * @param now     当前时间
+     * @param offset  跳过的条数
+     * @param limit   返回的条数
+     */
+    public FacetResult search(Map<String, String> filters, boolean openNow, LocalTime now, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            CompressedBitmap open = openNow ? openSlots[slotOf(now)] : null;
+            // 全部条件的交集
+            CompressedBitmap matched = intersect(filters, null, open);
+            int[] page = matched.range(offset, limit);
+            List<Long> pageIds = new ArrayList<>(page.length);
+            for (int ordinal : page) {
+                pageIds.add(ids[ordinal]);
+            }
+            // 每个筛选项去掉自身条件后，与各取值求交集个数
+            Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+            for (String facet : FACETS) {
+                CompressedBitmap base = filters.containsKey(facet) ? intersect(filters, facet, open) : matched;
+                Map<String, Integer> facetCounts = new TreeMap<>(VALUE_ORDER);
+                facets.get(facet).forEach((value, bitmap) -> {
+                    int count = base.andCardinality(bitmap);
+                    if (count > 0) {
+                        facetCounts.put(value, count);
+                    }
+                });
+                counts.put(facet, facetCounts);
+            }
+            CompressedBitmap base = openNow ? intersect(filters, null, null) : matched;
+            counts.put(OPEN_NOW, Collections.singletonMap("true", base.andCardinality(openSlots[slotOf(now)])));
+            return new FacetResult(matched.cardinality(), pageIds, counts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 除exclude外全部条件的交集，从元素最少的位图开始求；只有一个条件时直接返回索引中的位图，调用方不能修改
+     */
+    private CompressedBitmap intersect(Map<String, String> filters, String exclude, CompressedBitmap open) {
+        List<CompressedBitmap> bitmaps = new ArrayList<>();
+        for (String facet : FACETS) {
+            String value = filters.get(facet);
+            if (value == null || facet.equals(exclude)) {
+                continue;
+            }
+            CompressedBitmap bitmap = facets.get(facet).get(value);
+            if (bitmap == null) {
+                return new CompressedBitmap();
+            }
+            bitmaps.add(bitmap);
+        }
+        if (open != null) {
+            bitmaps.add(open);
+        }
+        if (bitmaps.isEmpty()) {
+            return all;
+        }
+        bitmaps.sort((a, b) -> Integer.compare(a.cardinality(), b.cardinality()));
+        CompressedBitmap result = bitmaps.get(0);
+        for (int i = 1; i < bitmaps.size(); i++) {
+            result = result.and(bitmaps.get(i));
+        }
+        return result;
+    }
+
+    private int nextOrdinal(Long id) {
+        int ordinal = ordinals.size();
+        if (ordinal == ids.length) {
+            ids = Arrays.copyOf(ids, ordinal * 2);
+            values = Arrays.copyOf(values, ordinal * 2);
+        }
+        ids[ordinal] = id;
+        return ordinal;
+    }
+
+    private void removeLocked(int ordinal) {
+        String[] old = values[ordinal];
+        if (old == null) {
+            return;
+        }
+        values[ordinal] = null;
+        all.remove(ordinal);
+        for (int i = 0; i < FACETS.length; i++) {
+            if (old[i] == null) {
+                continue;
+            }
+            Map<String, CompressedBitmap> bitmaps = facets.get(FACETS[i]);
+            CompressedBitmap bitmap = bitmaps.get(old[i]);
+            if (bitmap != null) {
+                bitmap.remove(ordinal);
+                if (bitmap.cardinality() == 0) {
+                    bitmaps.remove(old[i]);
+                }
+            }
+        }
+        for (CompressedBitmap bitmap : openSlots) {
+            bitmap.remove(ordinal);
+        }
+    }
+
+    /**
+     * 人均价格区间，如 0-50、50-100、500-
+     */
+    public static String priceBucket(Long avgPrice) {
+        if (avgPrice == null) {
+            return null;
+        }
+        long lower = 0;
+        for (long bound : PRICE_BOUNDS) {
+            if (avgPrice < bound) {
+                return lower + "-" + bound;
+            }
+            lower = bound;
+        }
+        return lower + "-";
+    }
+
+    /**
+     * 评分区间，按星级取整：score为0~50，37分即3星
+     */
+    public static String scoreBucket(Integer score) {
+        if (score == null) {
+            return null;
+        }
+        return String.valueOf(Math.max(0, Math.min(5, score / 10)));
+    }
+
+    private static int slotOf(LocalTime time) {
+        return (time.getHour() * 60 + time.getMinute()) / SLOT_MINUTES;
+    }
+
+    /**
+     * 解析营业时间，如 10:00-22:00、11:00-13:50,17:00-20:50、10:00-02:00（跨天）、00:00-24:00
+     *
+     * @return 各时段开始时是否营业，格式不正确时全部为false
+     */
+    static boolean[] openSlots(String openHours) {
+        boolean[] open = new boolean[SLOTS];
+        if (StrUtil.isBlank(openHours)) {
+            return open;
+        }
+        for (String range : StrUtil.split(openHours, ',', true, true)) {
+            List<String> parts = StrUtil.split(range, '-', true, true);
+            if (parts.size() != 2) {
+                continue;
+            }
+            int start = minutesOf(parts.get(0));
+            int end = minutesOf(parts.get(1));
+            if (start < 0 || end < 0) {
+                continue;
+            }
+            // 结束早于开始为跨天营业
+            if (end <= start) {
+                end += 24 * 60;
+            }
+            for (int slot = (start + SLOT_MINUTES - 1) / SLOT_MINUTES; slot * SLOT_MINUTES < end; slot++) {
+                open[slot % SLOTS] = true;
+            }
+        }
+        return open;
+    }
+
+    private static int minutesOf(String time) {
+        List<String> parts = StrUtil.split(time, ':', true, true);
+        if (parts.size() != 2) {
+            return -1;
+        }
+        try {
+            int hour = Integer.parseInt(parts.get(0));
+            int minute = Integer.parseInt(parts.get(1));
+            if (hour < 0 || minute < 0 || minute > 59 || hour * 60 + minute > 24 * 60) {
+                return -1;
+            }
+            return hour * 60 + minute;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 筛选结果
+     */
+    public static class FacetResult {
+        private final int total;
+        private final List<Long> ids;
+        private final Map<String, Map<String, Integer>> counts;
+
+        public FacetResult(int total, List<Long> ids, Map<String, Map<String, Integer>> counts) {
+            this.total = total;
+            this.ids = ids;
+            this.counts = counts;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public List<Long> getIds() {
+            return ids;
+        }
+
+        public Map<String, Map<String, Integer>> getCounts() {
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+import java.util.function.Function;
+
+/**
+ * 店铺排行依据，每个类型每种排行一个zset：shop:type:rank:排行:类型id
+ */
+public enum ShopSortKey {
+    /**
+     * 评分，高的在前
+     */
+    SCORE("score", shop -> shop.getScore() == null ? null : shop.getScore().longValue(), false),
+    /**
+     * 销量（人气），高的在前
+     */
+    SOLD("sold", shop -> shop.getSold() == null ? null : shop.getSold().longValue(), false),
+    /**
+     * 评论数，多的在前
+     */
+    COMMENTS("comments", shop -> shop.getComments() == null ? null : shop.getComments().longValue(), false),
+    /**
+     * 人均价格，低的在前
+     */
+    PRICE("avg_price", Shop::getAvgPrice, true);
+
+    /**
+     * 对应的数据库字段
+     */
+    private final String column;
+
+    private final Function<Shop, Long> getter;
+
+    private final boolean ascending;
+
+    ShopSortKey(String column, Function<Shop, Long> getter, boolean ascending) {
+        this.column = column;
+        this.getter = getter;
+        this.ascending = ascending;
+    }
+
+    /**
+     * zset中的分数，字段为空时按0处理
+     */
+    public double scoreOf(Shop shop) {
+        Long value = getter.apply(shop);
+        return value == null ? 0 : value;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public String keyOf(Long typeId) {
+        return RedisConstants.SHOP_TYPE_RANK_KEY + name().toLowerCase() + ":" + typeId;
+    }
+
+    /**
+     * 按名称查找，忽略大小写，找不到返回null
+     */
+    public static ShopSortKey of(String name) {
+        for (ShopSortKey key : values()) {
+            if (key.name().equalsIgnoreCase(name)) {
+                return key;
+            }
+        }
+        return null;
+    }
+}
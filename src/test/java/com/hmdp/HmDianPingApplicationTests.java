@@ -1,20 +1,30 @@
 package com.hmdp;
 
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
 import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.RedisIdWorker;
+import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+@Slf4j
 @SpringBootTest
 class HmDianPingApplicationTests {
 
@@ -58,5 +68,57 @@ class HmDianPingApplicationTests {
         cacheClient.setWitchLogicalExpire(CACHE_SHOP_KEY + 1L, shop, 10L, TimeUnit.SECONDS);
     }
 
+    /**
+     * 更新店铺后缓存被删除（含延迟双删），再次查询应从数据库加载并写回，而不是返回店铺不存在
+     */
+    @Test
+    void testUpdateThenRead() throws InterruptedException {
+        Shop shop = shopService.getById(1L);
+        assertTrue(shopService.updateShop(shop).getSuccess());
+        Result first = shopService.queryById(1L);
+        assertTrue(first.getSuccess(), first.getErrorMsg());
+        assertEquals(shop.getName(), ((Shop) first.getData()).getName());
+        // 等延迟的第二次删除执行后再查一次
+        TimeUnit.SECONDS.sleep(1);
+        Result second = shopService.queryById(1L);
+        assertTrue(second.getSuccess(), second.getErrorMsg());
+        assertEquals(shop.getName(), ((Shop) second.getData()).getName());
+    }
 
+    /**
+     * 对比每个店铺一个key和按桶存储的redis内存占用，按桶存储应更省内存
+     */
+    @Test
+    void testBucketMemoryUsage() {
+        int n = 10000;
+        String stringPrefix = "cache:memtest:string:";
+        String bucketPrefix = "cache:memtest:bucket:";
+        Shop shop = shopService.getById(1L);
+        List<Long> ids = new ArrayList<>(n);
+        Map<String, Shop> stringValues = new HashMap<>();
+        Map<String, Shop> bucketValues = new HashMap<>();
+        for (long id = 1; id <= n; id++) {
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class).setId(id);
+            ids.add(id);
+            stringValues.put(stringPrefix + id, copy);
+            bucketValues.put(bucketPrefix + id, copy);
+        }
+        // cacheClient是共享的单例，测试结束后取消按桶存储并删除写入的数据，避免影响其他测试
+        cacheClient.registerBucket(bucketPrefix, 100);
+        try {
+            cacheClient.setBatchWitchLogicalExpire(stringValues, 30L, 0L, TimeUnit.MINUTES);
+            cacheClient.setBatchWitchLogicalExpire(bucketValues, 30L, 0L, TimeUnit.MINUTES);
+            long stringBytes = cacheClient.memoryUsage(stringPrefix, ids);
+            long bucketBytes = cacheClient.memoryUsage(bucketPrefix, ids);
+            log.info("店铺数：{}，string：{}字节（{}/个），按桶：{}字节（{}/个），节省{}%",
+                    n, stringBytes, stringBytes / n, bucketBytes, bucketBytes / n,
+                    String.format("%.1f", 100.0 * (stringBytes - bucketBytes) / stringBytes));
+            assertTrue(bucketBytes < stringBytes, "按桶存储占用" + bucketBytes + "字节，不少于string的" + stringBytes + "字节");
+        } finally {
+            List<String> keys = new ArrayList<>(stringValues.keySet());
+            keys.addAll(bucketValues.keySet());
+            cacheClient.delete(keys);
+            cacheClient.unregisterBucket(bucketPrefix);
+        }
+    }
 }
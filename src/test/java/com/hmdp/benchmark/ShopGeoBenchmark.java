@@ -0,0 +1,129 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.GeoGridIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近店铺查询性能对比：进程内网格索引 vs redis GEO
+ * <p>
+ * redis模式需要本机6379端口的redis，会写入 benchmark:shop:geo 并在结束时删除。
+ * 运行main方法即可，默认100万个店铺分布在杭州市区约40公里见方的范围内，每次查询5公里内最近的10个
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShopGeoBenchmark {
+
+    private static final String KEY = "benchmark:shop:geo";
+
+    private static final double CENTER_X = 120.15;
+    private static final double CENTER_Y = 30.28;
+    private static final double SPAN = 0.4;
+
+    @Param({"local", "redis"})
+    private String mode;
+
+    @Param({"1000000"})
+    private int shops;
+
+    private GeoGridIndex index;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate redisTemplate;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        if ("local".equals(mode)) {
+            index = new GeoGridIndex(0.01);
+            for (long id = 1; id <= shops; id++) {
+                index.put(id, randomX(random), randomY(random));
+            }
+            return;
+        }
+        connectionFactory = new LettuceConnectionFactory("localhost", 6379);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.delete(KEY);
+        byte[] rawKey = KEY.getBytes(StandardCharsets.UTF_8);
+        int batch = 10000;
+        for (long start = 1; start <= shops; start += batch) {
+            Map<byte[], Point> points = new HashMap<>(batch * 2);
+            for (long id = start; id < start + batch && id <= shops; id++) {
+                points.put(String.valueOf(id).getBytes(StandardCharsets.UTF_8), new Point(randomX(random), randomY(random)));
+            }
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.geoAdd(rawKey, points));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (redisTemplate != null) {
+            redisTemplate.delete(KEY);
+            connectionFactory.destroy();
+        }
+    }
+
+    @Benchmark
+    public Object nearest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double x = CENTER_X + (random.nextDouble() - 0.5) * SPAN;
+        double y = CENTER_Y + (random.nextDouble() - 0.5) * SPAN;
+        if (index != null) {
+            return index.nearest(x, y, 10, 5000);
+        }
+        return redisTemplate.opsForGeo().radius(KEY, new Circle(new Point(x, y), new Distance(5000)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(10));
+    }
+
+    private static double randomX(Random random) {
+        return CENTER_X + (random.nextDouble() - 0.5) * SPAN;
+    }
+
+    private static double randomY(Random random) {
+        return CENTER_Y + (random.nextDouble() - 0.5) * SPAN;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ShopGeoBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,194 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 压缩位图，与TreeSet的结果对比
+ */
+class CompressedBitmapTest {
+
+    /**
+     * 数组块与位图块的转换阈值
+     */
+    private static final int ARRAY_MAX = 4096;
+
+    @Test
+    void addRemoveContains() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 50000; i++) {
+            // 集中在几个块中，部分块会变成位图块
+            int value = random.nextInt(4) * 65536 + random.nextInt(i % 3 == 0 ? 65536 : 8000);
+            if (random.nextInt(4) == 0) {
+                bitmap.remove(value);
+                expected.remove(value);
+            } else {
+                bitmap.add(value);
+                expected.add(value);
+            }
+        }
+        assertSame(expected, bitmap);
+        for (int i = 0; i < 10000; i++) {
+            int value = random.nextInt(5 * 65536);
+            assertEquals(expected.contains(value), bitmap.contains(value));
+        }
+    }
+
+    @Test
+    void arrayToBitmapThreshold() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        // 间隔取值，块内元素刚好达到数组块上限
+        for (int i = 0; i < ARRAY_MAX; i++) {
+            bitmap.add(i * 3);
+            expected.add(i * 3);
+        }
+        assertSame(expected, bitmap);
+        // 重复添加不变
+        bitmap.add(0);
+        assertEquals(ARRAY_MAX, bitmap.cardinality());
+        // 超过上限转换为位图块
+        bitmap.add(1);
+        expected.add(1);
+        assertSame(expected, bitmap);
+        bitmap.add(65535);
+        expected.add(65535);
+        assertSame(expected, bitmap);
+    }
+
+    @Test
+    void bitmapToArrayThreshold() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i <= ARRAY_MAX; i++) {
+            bitmap.add(70000 + i);
+            expected.add(70000 + i);
+        }
+        // 删除到一半上限以下时换回数组块，跨过边界前后都要正确
+        for (int i = ARRAY_MAX; i >= ARRAY_MAX / 2 - 2; i--) {
+            bitmap.remove(70000 + i);
+            expected.remove(70000 + i);
+            if (i >= ARRAY_MAX / 2 - 3) {
+                assertEquals(expected.size(), bitmap.cardinality());
+                assertFalse(bitmap.contains(70000 + i));
+                assertTrue(bitmap.contains(70000 + i - 1));
+            }
+        }
+        assertSame(expected, bitmap);
+        // 换回数组块后还能继续增长
+        for (int i = 0; i < ARRAY_MAX; i++) {
+            bitmap.add(70000 + 10000 + i);
+            expected.add(70000 + 10000 + i);
+        }
+        assertSame(expected, bitmap);
+        // 删除全部元素后块被移除
+        for (Integer value : new ArrayList<>(expected)) {
+            bitmap.remove(value);
+        }
+        assertEquals(0, bitmap.cardinality());
+        assertArrayEquals(new int[0], bitmap.range(0, 10));
+    }
+
+    @Test
+    void setOperations() {
+        Random random = new Random(2);
+        // 稀疏/稠密两两组合，覆盖数组块与位图块之间的各种运算
+        int[] densities = {100, 3000, 5000, 60000};
+        for (int da : densities) {
+            for (int db : densities) {
+                TreeSet<Integer> a = randomSet(random, da);
+                TreeSet<Integer> b = randomSet(random, db);
+                CompressedBitmap ba = bitmapOf(a);
+                CompressedBitmap bb = bitmapOf(b);
+
+                TreeSet<Integer> and = new TreeSet<>(a);
+                and.retainAll(b);
+                TreeSet<Integer> or = new TreeSet<>(a);
+                or.addAll(b);
+                TreeSet<Integer> andNot = new TreeSet<>(a);
+                andNot.removeAll(b);
+
+                assertSame(and, ba.and(bb));
+                assertEquals(and.size(), ba.andCardinality(bb));
+                assertSame(or, ba.or(bb));
+                assertSame(andNot, ba.andNot(bb));
+                // 参数不被修改
+                assertSame(a, ba);
+                assertSame(b, bb);
+            }
+        }
+    }
+
+    @Test
+    void resultsAreIndependentCopies() {
+        CompressedBitmap a = bitmapOf(new TreeSet<>(Arrays.asList(1, 2, 3)));
+        CompressedBitmap b = bitmapOf(new TreeSet<>(Arrays.asList(100000)));
+        CompressedBitmap or = a.or(b);
+        CompressedBitmap andNot = a.andNot(b);
+        or.add(4);
+        andNot.remove(1);
+        assertFalse(a.contains(4));
+        assertTrue(a.contains(1));
+    }
+
+    @Test
+    void selectAndRange() {
+        Random random = new Random(3);
+        TreeSet<Integer> expected = randomSet(random, 9000);
+        CompressedBitmap bitmap = bitmapOf(expected);
+        List<Integer> sorted = new ArrayList<>(expected);
+        for (int rank = 0; rank < sorted.size(); rank += 7) {
+            assertEquals(sorted.get(rank), bitmap.select(rank));
+        }
+        assertEquals(sorted.get(sorted.size() - 1), bitmap.select(sorted.size() - 1));
+        assertThrows(IllegalArgumentException.class, () -> bitmap.select(sorted.size()));
+        assertThrows(IllegalArgumentException.class, () -> bitmap.select(-1));
+
+        for (int offset : new int[]{0, 1, 4095, 4096, 5000, sorted.size() - 3, sorted.size(), sorted.size() + 10}) {
+            int[] page = bitmap.range(offset, 10);
+            int to = Math.min(sorted.size(), offset + 10);
+            int[] want = sorted.subList(Math.min(offset, to), to).stream().mapToInt(Integer::intValue).toArray();
+            assertArrayEquals(want, page);
+        }
+        // 负数offset按0处理
+        assertArrayEquals(bitmap.range(0, 5), bitmap.range(-20, 5));
+    }
+
+    /**
+     * 值分布在3个块中，density为每个块大约的元素个数
+     */
+    private static TreeSet<Integer> randomSet(Random random, int density) {
+        TreeSet<Integer> set = new TreeSet<>();
+        for (int block = 0; block < 3; block++) {
+            for (int i = 0; i < density; i++) {
+                set.add(block * 2 * 65536 + random.nextInt(65536));
+            }
+        }
+        return set;
+    }
+
+    private static CompressedBitmap bitmapOf(TreeSet<Integer> values) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        values.forEach(bitmap::add);
+        return bitmap;
+    }
+
+    private static void assertSame(TreeSet<Integer> expected, CompressedBitmap bitmap) {
+        assertEquals(expected.size(), bitmap.cardinality());
+        int[] all = bitmap.range(0, Integer.MAX_VALUE);
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), all);
+    }
+}
@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 经纬度网格索引，与逐个计算距离的结果对比
+ */
+class GeoGridIndexTest {
+
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    private static final int[] KS = {1, 5, 20, 200};
+
+    private static final double[] RADII = {300, 2_000, 20_000, 10_000_000};
+
+    @Test
+    void nearestMatchesBruteForce() {
+        Random random = new Random(11);
+        GeoGridIndex index = new GeoGridIndex(0.01);
+        Map<Long, double[]> points = new HashMap<>();
+        for (long id = 1; id <= 3000; id++) {
+            put(index, points, id, 120.1 + random.nextGaussian() * 0.05, 30.2 + random.nextGaussian() * 0.05);
+        }
+        for (int q = 0; q < 200; q++) {
+            double x = 120.1 + random.nextGaussian() * 0.08;
+            double y = 30.2 + random.nextGaussian() * 0.08;
+            for (int k : KS) {
+                for (double radius : RADII) {
+                    check(index, points, x, y, k, radius);
+                }
+            }
+        }
+    }
+
+    @Test
+    void negativeCoordinates() {
+        Random random = new Random(12);
+        // 跨越本初子午线和赤道，格子行列为负数
+        GeoGridIndex index = new GeoGridIndex(0.001);
+        Map<Long, double[]> points = new HashMap<>();
+        for (long id = 1; id <= 2000; id++) {
+            put(index, points, id, (random.nextDouble() - 0.5) * 0.02, (random.nextDouble() - 0.5) * 0.02);
+        }
+        // 西经、南纬
+        for (long id = 2001; id <= 3000; id++) {
+            put(index, points, id, -73.98 + random.nextDouble() * 0.01, -33.45 + random.nextDouble() * 0.01);
+        }
+        double[][] queries = {{0, 0}, {-0.0001, -0.0001}, {0.0049, -0.0051}, {-0.01, 0.01}, {-73.975, -33.445}, {-73.99, -33.46}};
+        for (double[] query : queries) {
+            for (int k : KS) {
+                for (double radius : RADII) {
+                    check(index, points, query[0], query[1], k, radius);
+                }
+            }
+        }
+    }
+
+    @Test
+    void ringEarlyTermination() {
+        GeoGridIndex index = new GeoGridIndex(0.01);
+        Map<Long, double[]> points = new HashMap<>();
+        // 查询点在格子[120.00, 120.01)的右边缘，同一格子里的点在左边，右侧相邻格子里的点更近
+        put(index, points, 1, 120.0001, 30.005);
+        put(index, points, 2, 120.0102, 30.005);
+        List<GeoGridIndex.Neighbor> result = index.nearest(120.0099, 30.005, 1, 10_000);
+        assertEquals(1, result.size());
+        assertEquals(2L, result.get(0).getId());
+        // 同一格子已经够k个，但斜对角相邻格子里还有更近的
+        put(index, points, 3, 120.0002, 30.0002);
+        put(index, points, 4, 120.0101, 30.0101);
+        check(index, points, 120.0099, 30.0099, 2, 10_000);
+        // 附近没有点，需要扫描很多圈才能找到
+        put(index, points, 5, 120.5, 30.5);
+        check(index, points, 121.0, 31.0, 3, 200_000);
+        // 点都在半径外
+        assertTrue(index.nearest(122.0, 32.0, 3, 1_000).isEmpty());
+        assertTrue(index.nearest(120.0, 30.0, 0, 10_000).isEmpty());
+    }
+
+    @Test
+    void moveAndRemove() {
+        Random random = new Random(13);
+        GeoGridIndex index = new GeoGridIndex(0.005);
+        Map<Long, double[]> points = new HashMap<>();
+        for (long id = 1; id <= 1000; id++) {
+            put(index, points, id, 120.1 + random.nextDouble() * 0.1, 30.2 + random.nextDouble() * 0.1);
+        }
+        // 移动到其他格子、同一格子内移动、删除
+        for (long id = 1; id <= 1000; id += 3) {
+            put(index, points, id, 120.1 + random.nextDouble() * 0.1, 30.2 + random.nextDouble() * 0.1);
+        }
+        for (long id = 2; id <= 1000; id += 7) {
+            double[] p = points.get(id);
+            put(index, points, id, p[0] + 0.0001, p[1]);
+        }
+        for (long id = 5; id <= 1000; id += 4) {
+            index.remove(id);
+            points.remove(id);
+        }
+        index.remove(5000);
+        assertEquals(points.size(), index.size());
+        for (int q = 0; q < 100; q++) {
+            double x = 120.1 + random.nextDouble() * 0.1;
+            double y = 30.2 + random.nextDouble() * 0.1;
+            check(index, points, x, y, 10, 3_000);
+            check(index, points, x, y, 2000, 100_000);
+        }
+    }
+
+    private static void put(GeoGridIndex index, Map<Long, double[]> points, long id, double x, double y) {
+        index.put(id, x, y);
+        points.put(id, new double[]{x, y});
+    }
+
+    private static void check(GeoGridIndex index, Map<Long, double[]> points, double x, double y, int k, double radius) {
+        String message = "x=" + x + " y=" + y + " k=" + k + " radius=" + radius;
+        List<double[]> expected = new ArrayList<>();
+        double metersPerLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(y));
+        points.forEach((id, p) -> {
+            double dx = (p[0] - x) * metersPerLon;
+            double dy = (p[1] - y) * METERS_PER_DEGREE;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance <= radius) {
+                expected.add(new double[]{id, distance});
+            }
+        });
+        expected.sort(Comparator.comparingDouble(e -> e[1]));
+        List<GeoGridIndex.Neighbor> result = index.nearest(x, y, k, radius);
+        assertEquals(Math.min(k, expected.size()), result.size(), message);
+        for (int i = 0; i < result.size(); i++) {
+            assertEquals((long) expected.get(i)[0], result.get(i).getId(), message + " i=" + i);
+            assertEquals(expected.get(i)[1], result.get(i).getDistance(), 1e-6, message + " i=" + i);
+        }
+    }
+}
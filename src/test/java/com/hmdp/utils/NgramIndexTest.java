@@ -0,0 +1,201 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * n-gram倒排索引，与逐条做包含判断的结果对比
+ */
+class NgramIndexTest {
+
+    private static final String ALPHABET = "茶餐厅火锅烤肉店小吃杭州拱墅区大关路Aab ";
+
+    private static final String[] QUERIES = {
+            "茶", "a", "A", " ", "火锅", "火 锅", "锅店", "AB", "小吃店", "杭州拱墅", "大关路火锅", "不存在", "茶茶", ""
+    };
+
+    private static final Comparator<long[]> ORDER = (a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1])
+            : a[2] != b[2] ? Long.compare(a[2], b[2])
+            : Long.compare(a[0], b[0]);
+
+    @Test
+    void searchMatchesBruteForce() {
+        Random random = new Random(21);
+        NgramIndex index = new NgramIndex();
+        Map<Long, String[]> docs = new LinkedHashMap<>();
+        for (long id = 1; id <= 1500; id++) {
+            put(index, docs, id, randomText(random, 2, 8), randomText(random, 4, 12));
+        }
+        for (String query : QUERIES) {
+            List<long[]> expected = bruteForce(docs, query);
+            // offset分页拼起来等于完整结果
+            List<Long> paged = new ArrayList<>();
+            for (int offset = 0; offset <= expected.size(); offset += 7) {
+                paged.addAll(index.search(query, offset, 7));
+            }
+            assertEquals(ids(expected), paged, query);
+            assertEquals(ids(expected), index.search(query, 0, Integer.MAX_VALUE), query);
+            assertTrue(index.search(query, expected.size(), 10).isEmpty(), query);
+            assertTrue(index.search(query, 0, 0).isEmpty(), query);
+            // 负数offset按0处理
+            assertEquals(index.search(query, 0, 7), index.search(query, -14, 7), query);
+            // 滚动分页拼起来等于完整结果
+            assertEquals(expected.size(), scroll(index, query, 9).size(), query);
+            assertEquals(ids(expected), hitIds(scroll(index, query, 9)), query);
+        }
+    }
+
+    @Test
+    void singleCharacterQuery() {
+        NgramIndex index = new NgramIndex();
+        index.put(1, "茶餐厅", "杭州");
+        index.put(2, "奶茶", "拱墅区");
+        index.put(3, "火锅", "茶山路");
+        index.put(4, "烤肉", "大关");
+        // 名称前缀 > 名称包含 > 地址包含
+        assertEquals(ids(1L, 2L, 3L), index.search("茶", 0, 10));
+        assertEquals(ids(3L), index.search("锅", 0, 10));
+        assertEquals(ids(4L), index.search(" 关", 0, 10));
+        assertTrue(index.search("面", 0, 10).isEmpty());
+    }
+
+    @Test
+    void updateMovesId() {
+        Random random = new Random(22);
+        NgramIndex index = new NgramIndex();
+        Map<Long, String[]> docs = new LinkedHashMap<>();
+        for (long id = 1; id <= 800; id++) {
+            put(index, docs, id, randomText(random, 2, 8), randomText(random, 4, 12));
+        }
+        // 更新后旧文本不再命中，新文本命中，相关度重新计算
+        for (long id = 1; id <= 800; id += 3) {
+            put(index, docs, id, randomText(random, 2, 8), randomText(random, 4, 12));
+        }
+        for (long id = 2; id <= 800; id += 10) {
+            index.remove(id);
+            docs.remove(id);
+        }
+        put(index, docs, 5, "火锅", "大关路");
+        put(index, docs, 5, "小吃", "杭州");
+        assertEquals(docs.size(), index.size());
+        for (String query : QUERIES) {
+            assertEquals(ids(bruteForce(docs, query)), index.search(query, 0, Integer.MAX_VALUE), query);
+        }
+        assertTrue(index.search("火锅", 0, 100).stream().noneMatch(id -> id == 5L));
+        assertTrue(index.search("小吃", 0, 100).contains(5L));
+    }
+
+    @Test
+    void searchAfterWithChangedCursor() {
+        Random random = new Random(23);
+        NgramIndex index = new NgramIndex();
+        Map<Long, String[]> docs = new LinkedHashMap<>();
+        for (long id = 1; id <= 600; id++) {
+            put(index, docs, id, randomText(random, 2, 8), randomText(random, 4, 12));
+        }
+        String query = "火锅";
+        List<NgramIndex.Hit> first = index.searchAfter(query, null, 10);
+        assertEquals(10, first.size());
+        NgramIndex.Hit cursor = first.get(first.size() - 1);
+        // 上一页最后一条在翻页之间被删除或移动，下一页仍从它原来的位置之后开始
+        index.remove(cursor.getId());
+        docs.remove(cursor.getId());
+        long moved = first.get(3).getId();
+        put(index, docs, moved, "火锅" + docs.get(moved)[0], docs.get(moved)[1]);
+        List<long[]> expected = new ArrayList<>();
+        long[] key = {cursor.getId(), cursor.getScore(), cursor.getNameLength()};
+        for (long[] hit : bruteForce(docs, query)) {
+            if (ORDER.compare(hit, key) > 0) {
+                expected.add(hit);
+            }
+        }
+        List<NgramIndex.Hit> next = index.searchAfter(query, cursor, 10);
+        assertEquals(ids(expected.subList(0, Math.min(10, expected.size()))), hitIds(next));
+    }
+
+    private static void put(NgramIndex index, Map<Long, String[]> docs, long id, String name, String address) {
+        index.put(id, name, address);
+        docs.put(id, new String[]{name, address});
+    }
+
+    /**
+     * @return {id, 分数, 名称长度}，按相关度排序
+     */
+    private static List<long[]> bruteForce(Map<Long, String[]> docs, String keyword) {
+        String query = normalize(keyword);
+        List<long[]> hits = new ArrayList<>();
+        if (query.isEmpty()) {
+            return hits;
+        }
+        docs.forEach((id, doc) -> {
+            String name = normalize(doc[0]);
+            String address = normalize(doc[1]);
+            int score = 0;
+            if (name.contains(query)) {
+                score = name.startsWith(query) ? 150 : 100;
+            } else if (address.contains(query)) {
+                score = 10;
+            }
+            if (score > 0) {
+                hits.add(new long[]{id, score, name.length()});
+            }
+        });
+        hits.sort(ORDER);
+        return hits;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.replaceAll("\\s", "").toLowerCase();
+    }
+
+    private static List<NgramIndex.Hit> scroll(NgramIndex index, String query, int size) {
+        List<NgramIndex.Hit> all = new ArrayList<>();
+        NgramIndex.Hit after = null;
+        while (true) {
+            List<NgramIndex.Hit> page = index.searchAfter(query, after, size);
+            if (page.isEmpty()) {
+                return all;
+            }
+            all.addAll(page);
+            after = page.get(page.size() - 1);
+        }
+    }
+
+    private static String randomText(Random random, int min, int max) {
+        int length = min + random.nextInt(max - min + 1);
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    private static List<Long> ids(List<long[]> hits) {
+        List<Long> ids = new ArrayList<>(hits.size());
+        hits.forEach(hit -> ids.add(hit[0]));
+        return ids;
+    }
+
+    private static List<Long> ids(Long... ids) {
+        List<Long> list = new ArrayList<>();
+        for (Long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<Long> hitIds(List<NgramIndex.Hit> hits) {
+        List<Long> ids = new ArrayList<>(hits.size());
+        hits.forEach(hit -> ids.add(hit.getId()));
+        return ids;
+    }
+}
@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 响应体编解码器，头部字段的读取与响应体截取
+ */
+class ResponseBodyCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ResponseBodyCodec codec = new ResponseBodyCodec(objectMapper, JsonCacheCodec.INSTANCE);
+
+    @Test
+    void headerFields() throws Exception {
+        Shop shop = new Shop().setId(1L).setName("茶餐厅");
+        byte[] body = objectMapper.writeValueAsBytes(Result.ok(shop));
+        long now = System.currentTimeMillis();
+
+        byte[] xfetch = codec.encodeWithExpire(shop, now + 60_000, 35);
+        assertEquals(now + 60_000, ResponseBodyCodec.expireMillis(xfetch));
+        assertEquals(35, ResponseBodyCodec.recomputeMillis(xfetch));
+        assertArrayEquals(body, ResponseBodyCodec.freshBody(xfetch, now));
+        assertNull(ResponseBodyCodec.freshBody(xfetch, now + 60_000));
+
+        byte[] logical = codec.encodeWithExpire(shop, now + 60_000);
+        assertEquals(now + 60_000, ResponseBodyCodec.expireMillis(logical));
+        assertEquals(0, ResponseBodyCodec.recomputeMillis(logical));
+        assertArrayEquals(body, ResponseBodyCodec.freshBody(logical, now));
+
+        byte[] plain = codec.encode(shop);
+        assertEquals(Long.MAX_VALUE, ResponseBodyCodec.expireMillis(plain));
+        assertEquals(0, ResponseBodyCodec.recomputeMillis(plain));
+        assertArrayEquals(body, ResponseBodyCodec.freshBody(plain, now));
+
+        assertNull(ResponseBodyCodec.freshBody(codec.encodeWithExpire(null, now + 60_000), now));
+        assertEquals("茶餐厅", codec.decode(xfetch, Shop.class).getName());
+    }
+}
@@ -0,0 +1,211 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 店铺筛选索引，与逐个店铺判断的结果对比
+ */
+class ShopFacetIndexTest {
+
+    private static final String[] AREAS = {"大关", "运河上街", "拱宸桥/上塘", null};
+
+    private static final String[] HOURS = {
+            "10:00-22:00", "22:00-02:00", "11:00-13:50,17:00-20:50", "00:00-24:00", null, "bad"
+    };
+
+    private static final LocalTime[] TIMES = {
+            LocalTime.of(0, 30), LocalTime.of(1, 59), LocalTime.of(9, 59), LocalTime.of(12, 0),
+            LocalTime.of(13, 45), LocalTime.of(14, 0), LocalTime.of(21, 50), LocalTime.of(23, 30)
+    };
+
+    @Test
+    void searchMatchesBruteForce() {
+        Random random = new Random(7);
+        ShopFacetIndex index = new ShopFacetIndex();
+        Map<Long, Shop> shops = new LinkedHashMap<>();
+        for (long id = 1; id <= 600; id++) {
+            Shop shop = randomShop(random, id);
+            shops.put(id, shop);
+            index.put(shop);
+        }
+        // 部分店铺更新、删除，校验旧的位被清掉
+        for (long id = 1; id <= 600; id += 5) {
+            Shop shop = randomShop(random, id);
+            shops.put(id, shop);
+            index.put(shop);
+        }
+        for (long id = 3; id <= 600; id += 11) {
+            shops.remove(id);
+            index.remove(id);
+        }
+        assertEquals(shops.size(), index.size());
+
+        List<Map<String, String>> filterCases = new ArrayList<>();
+        filterCases.add(Collections.emptyMap());
+        filterCases.add(filters(ShopFacetIndex.TYPE, "2"));
+        filterCases.add(filters(ShopFacetIndex.AREA, "大关", ShopFacetIndex.PRICE, "50-100"));
+        filterCases.add(filters(ShopFacetIndex.TYPE, "1", ShopFacetIndex.SCORE, "4", ShopFacetIndex.AREA, "运河上街"));
+        filterCases.add(filters(ShopFacetIndex.PRICE, "500-"));
+        filterCases.add(filters(ShopFacetIndex.AREA, "不存在"));
+        for (Map<String, String> filters : filterCases) {
+            for (LocalTime now : TIMES) {
+                for (boolean openNow : new boolean[]{false, true}) {
+                    check(index, shops, filters, openNow, now);
+                }
+            }
+        }
+    }
+
+    @Test
+    void openHours() {
+        ShopFacetIndex index = new ShopFacetIndex();
+        index.put(shop(1L, "10:00-22:00"));
+        index.put(shop(2L, "22:00-02:00"));
+        index.put(shop(3L, "11:00-13:50,17:00-20:50"));
+        index.put(shop(4L, "00:00-24:00"));
+        index.put(shop(5L, null));
+        assertEquals(ids(1L, 3L, 4L), openIds(index, LocalTime.of(12, 0)));
+        assertEquals(ids(1L, 4L), openIds(index, LocalTime.of(14, 0)));
+        // 跨天营业
+        assertEquals(ids(2L, 4L), openIds(index, LocalTime.of(23, 0)));
+        assertEquals(ids(2L, 4L), openIds(index, LocalTime.of(1, 45)));
+        assertEquals(ids(4L), openIds(index, LocalTime.of(2, 0)));
+        // 13:45这个时段开始时还在营业
+        assertTrue(openIds(index, LocalTime.of(13, 45)).contains(3L));
+        assertFalse(openIds(index, LocalTime.of(14, 0)).contains(3L));
+    }
+
+    private static void check(ShopFacetIndex index, Map<Long, Shop> shops, Map<String, String> filters,
+                              boolean openNow, LocalTime now) {
+        String message = filters + " openNow=" + openNow + " now=" + now;
+        List<Long> matched = new ArrayList<>();
+        for (Shop shop : shops.values()) {
+            if (matches(shop, filters, null) && (!openNow || isOpen(shop, now))) {
+                matched.add(shop.getId());
+            }
+        }
+        // 按加入索引的先后（即id）排序
+        Collections.sort(matched);
+        ShopFacetIndex.FacetResult result = index.search(filters, openNow, now, 0, Integer.MAX_VALUE);
+        assertEquals(matched.size(), result.getTotal(), message);
+        assertEquals(matched, result.getIds(), message);
+        ShopFacetIndex.FacetResult page = index.search(filters, openNow, now, 3, 4);
+        assertEquals(matched.subList(Math.min(3, matched.size()), Math.min(7, matched.size())), page.getIds(), message);
+
+        // 每个筛选项的数量不受该项自身条件限制，但受营业中条件限制
+        for (String facet : new String[]{ShopFacetIndex.TYPE, ShopFacetIndex.AREA, ShopFacetIndex.PRICE, ShopFacetIndex.SCORE}) {
+            Map<String, Integer> expected = new HashMap<>();
+            for (Shop shop : shops.values()) {
+                String value = valueOf(shop, facet);
+                if (value != null && matches(shop, filters, facet) && (!openNow || isOpen(shop, now))) {
+                    expected.merge(value, 1, Integer::sum);
+                }
+            }
+            assertEquals(expected, new HashMap<>(result.getCounts().get(facet)), message + " facet=" + facet);
+        }
+        // 营业中的数量不受营业中条件自身限制
+        int open = 0;
+        for (Shop shop : shops.values()) {
+            if (matches(shop, filters, null) && isOpen(shop, now)) {
+                open++;
+            }
+        }
+        assertEquals(open, result.getCounts().get(ShopFacetIndex.OPEN_NOW).get("true"), message);
+    }
+
+    private static boolean matches(Shop shop, Map<String, String> filters, String exclude) {
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            if (!filter.getKey().equals(exclude) && !filter.getValue().equals(valueOf(shop, filter.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String valueOf(Shop shop, String facet) {
+        switch (facet) {
+            case ShopFacetIndex.TYPE:
+                return shop.getTypeId() == null ? null : shop.getTypeId().toString();
+            case ShopFacetIndex.AREA:
+                return shop.getArea();
+            case ShopFacetIndex.PRICE:
+                return ShopFacetIndex.priceBucket(shop.getAvgPrice());
+            case ShopFacetIndex.SCORE:
+                return ShopFacetIndex.scoreBucket(shop.getScore());
+            default:
+                throw new IllegalArgumentException(facet);
+        }
+    }
+
+    /**
+     * 按15分钟时段判断：当前时段的开始时间在营业时间内
+     */
+    private static boolean isOpen(Shop shop, LocalTime now) {
+        if (shop.getOpenHours() == null || !shop.getOpenHours().contains(":")) {
+            return false;
+        }
+        int t = (now.getHour() * 60 + now.getMinute()) / 15 * 15;
+        for (String range : shop.getOpenHours().split(",")) {
+            String[] parts = range.trim().split("-");
+            int start = minutes(parts[0]);
+            int end = minutes(parts[1]);
+            boolean open = end > start ? t >= start && t < end : t >= start || t < end;
+            if (open) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int minutes(String time) {
+        String[] parts = time.trim().split(":");
+        return Integer.parseInt(parts[0]) * 60 + Integer.parseInt(parts[1]);
+    }
+
+    private static Shop randomShop(Random random, long id) {
+        return new Shop()
+                .setId(id)
+                .setTypeId((long) random.nextInt(3) + 1)
+                .setArea(AREAS[random.nextInt(AREAS.length)])
+                .setAvgPrice(random.nextInt(10) == 0 ? null : (long) random.nextInt(700))
+                .setScore(random.nextInt(51))
+                .setOpenHours(HOURS[random.nextInt(HOURS.length)]);
+    }
+
+    private static Shop shop(long id, String openHours) {
+        return new Shop().setId(id).setTypeId(1L).setOpenHours(openHours);
+    }
+
+    private static List<Long> openIds(ShopFacetIndex index, LocalTime now) {
+        return index.search(Collections.emptyMap(), true, now, 0, 100).getIds();
+    }
+
+    private static List<Long> ids(Long... ids) {
+        List<Long> list = new ArrayList<>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+
+    private static Map<String, String> filters(String... pairs) {
+        Map<String, String> filters = new TreeMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            filters.put(pairs[i], pairs[i + 1]);
+        }
+        return filters;
+    }
+}